@@ -5,13 +5,12 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 
-import static ru.valle.btc.BTCUtils.decodeBase58;
 
 public final class Address {
     static final int TYPE_MAINNET = 0;
@@ -19,6 +18,7 @@ public final class Address {
     static final int TYPE_P2SH = 5;
     static final int TYPE_P2SH_TESTNET = 196;
     static final int TYPE_NONE = -1;
+    static final int BULK_BUFFER_SIZE = 8192;
 
     static final int PUBLIC_KEY_TO_ADDRESS_LEGACY = 1;
     static final int PUBLIC_KEY_TO_ADDRESS_P2WKH = 2;
@@ -56,23 +56,19 @@ public final class Address {
                 return;
             }
         }
-        byte[] decodedAddress = decodeBase58(address);
-        if (decodedAddress == null || decodedAddress.length < 6) {
+        Base58.Checked decodedAddress = Base58.decodeChecked(address);
+        if (decodedAddress == null || decodedAddress.payloadLength != 20) {
             throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Bad address");
         }
-        keyhashType = decodedAddress[0] & 0xff;
+        keyhashType = decodedAddress.version();
         if (keyhashType == TYPE_MAINNET || keyhashType == TYPE_TESTNET || keyhashType == TYPE_P2SH || keyhashType == TYPE_P2SH_TESTNET) {
-            if (BTCUtils.verifyDoubleSha256Checksum(decodedAddress)) {
-                witnessProgram = null;
-                hash160 = new byte[20];
-                System.arraycopy(decodedAddress, 1, hash160, 0, hash160.length);
-            } else {
-                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Bad address");
-            }
+            witnessProgram = null;
+            hash160 = decodedAddress.copyPayload(0, 20);
         } else {
-            throw new BitcoinException(BitcoinException.ERR_WRONG_TYPE, "Unsupported address type " + (decodedAddress[0] & 0xff));
+            throw new BitcoinException(BitcoinException.ERR_WRONG_TYPE, "Unsupported address type " + keyhashType);
         }
-        this.addressString = ripemd160HashToAddress((byte) keyhashType, hash160);
+        //Base58 has one encoding for the given bytes, so the trimmed input is already the canonical form
+        this.addressString = address.trim();
     }
 
     Address(boolean testNet, Transaction.Script.WitnessProgram witnessProgram) throws BitcoinException {
@@ -141,26 +137,61 @@ public final class Address {
         return ripemd160HashToAddress(version, hashedPublicKey);
     }
 
-    private static String ripemd160HashToAddress(byte version, byte[] hashedPublicKey) {
-        try {
-            //4 - Add version byte in front of RIPEMD-160 hash (0x00 for Main Network)
-            byte[] addressBytes = new byte[1 + hashedPublicKey.length + 4];
-            addressBytes[0] = version;
-            System.arraycopy(hashedPublicKey, 0, addressBytes, 1, hashedPublicKey.length);
-            //5 - Perform SHA-256 hash on the extended RIPEMD-160 result
-            //6 - Perform SHA-256 hash on the result of the previous SHA-256 hash
-            MessageDigest digestSha = MessageDigest.getInstance("SHA-256");
-            digestSha.update(addressBytes, 0, addressBytes.length - 4);
-            byte[] check = digestSha.digest(digestSha.digest());
-            //7 - Take the first 4 bytes of the second SHA-256 hash. This is the address checksum
-            //8 - Add the 4 checksum bytes from point 7 at the end of extended RIPEMD-160 hash from point 4. This is the 25-byte binary Bitcoin Address.
-            System.arraycopy(check, 0, addressBytes, hashedPublicKey.length + 1, 4);
-            return BTCUtils.encodeBase58(addressBytes);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    /**
+     * Writes base58 addresses of 20 byte hashes which follow each other in the array, each address followed by the separator.
+     * Addresses are encoded into one reused buffer a buffer-full at a time, and checksums of each buffer-full are hashed in one batch.
+     *
+     * @param version one of TYPE_MAINNET, TYPE_TESTNET, TYPE_P2SH, TYPE_P2SH_TESTNET
+     */
+    static void writeAddresses(int version, byte[] hashes, int offset, int count, char separator, Writer writer) throws IOException {
+        int recordLength = 1 + 20 + Digests.CHECKSUM_LENGTH;
+        char[] buffer = new char[BULK_BUFFER_SIZE];
+        int batchSize = buffer.length / (Base58.maxEncodedLength(recordLength) + 1);
+        byte[] records = new byte[batchSize * recordLength];
+        for (int done = 0; done < count; done += batchSize) {
+            int batch = Math.min(batchSize, count - done);
+            for (int i = 0; i < batch; i++) {
+                records[i * recordLength] = (byte) version;
+                System.arraycopy(hashes, offset + (done + i) * 20, records, i * recordLength + 1, 20);
+            }
+            writer.write(buffer, 0, Base58.encodeChecked(records, recordLength, batch, separator, buffer, 0));
         }
     }
 
+    /**
+     * Writes segwit addresses of witness programs of the same length which follow each other in the array,
+     * each address followed by the separator.
+     */
+    static void writeSegwitAddresses(boolean testNet, int version, byte[] programs, int offset, int programLength, int count,
+                                     char separator, Writer writer) throws IOException, BitcoinException {
+        Bech32.SegwitEncoder encoder = new Bech32.SegwitEncoder(testNet ? "tc" : "bc", version);
+        int maxLength = encoder.maxEncodedLength(programLength) + 1;
+        char[] buffer = new char[BULK_BUFFER_SIZE];
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (pos + maxLength > buffer.length) {
+                writer.write(buffer, 0, pos);
+                pos = 0;
+            }
+            pos += encoder.encode(programs, offset + i * programLength, programLength, buffer, pos);
+            buffer[pos++] = separator;
+        }
+        writer.write(buffer, 0, pos);
+    }
+
+    private static String ripemd160HashToAddress(byte version, byte[] hashedPublicKey) {
+        //4 - Add version byte in front of RIPEMD-160 hash (0x00 for Main Network)
+        byte[] addressBytes = new byte[1 + hashedPublicKey.length + 4];
+        addressBytes[0] = version;
+        System.arraycopy(hashedPublicKey, 0, addressBytes, 1, hashedPublicKey.length);
+        //5 - Perform SHA-256 hash on the extended RIPEMD-160 result
+        //6 - Perform SHA-256 hash on the result of the previous SHA-256 hash
+        //7 - Take the first 4 bytes of the second SHA-256 hash. This is the address checksum
+        //8 - Add the 4 checksum bytes from point 7 at the end of extended RIPEMD-160 hash from point 4. This is the 25-byte binary Bitcoin Address.
+        Digests.writeChecksum(addressBytes);
+        return BTCUtils.encodeBase58(addressBytes);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
@@ -29,31 +29,20 @@ import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 
-import org.spongycastle.asn1.ASN1InputStream;
-import org.spongycastle.asn1.ASN1Integer;
-import org.spongycastle.asn1.DERSequenceGenerator;
-import org.spongycastle.asn1.DLSequence;
 import org.spongycastle.asn1.sec.SECNamedCurves;
 import org.spongycastle.asn1.x9.X9ECParameters;
-import org.spongycastle.crypto.digests.RIPEMD160Digest;
 import org.spongycastle.crypto.engines.AESEngine;
 import org.spongycastle.crypto.params.ECDomainParameters;
-import org.spongycastle.crypto.params.ECPrivateKeyParameters;
-import org.spongycastle.crypto.params.ECPublicKeyParameters;
 import org.spongycastle.crypto.params.KeyParameter;
-import org.spongycastle.crypto.params.ParametersWithRandom;
-import org.spongycastle.crypto.signers.ECDSASigner;
-import org.spongycastle.math.ec.ECPoint;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -66,8 +55,7 @@ import ru.valle.spongycastle.crypto.generators.SCrypt;
 
 @SuppressWarnings({"WeakerAccess", "TryWithIdenticalCatches", "unused"})
 public final class BTCUtils {
-    private static final ECDomainParameters EC_PARAMS;
-    private static final char[] BASE58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
+    static final ECDomainParameters EC_PARAMS;
     public static final TrulySecureRandom SECURE_RANDOM = new TrulySecureRandom();
     static final BigInteger LARGEST_PRIVATE_KEY = new BigInteger("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141", 16);//SECP256K1_N
     public static final long MAX_ALLOWED_FEE = BTCUtils.parseValue("0.1");
@@ -76,6 +64,11 @@ public final class BTCUtils {
     public static final int TRANSACTION_TYPE_LEGACY = 0;
     public static final int TRANSACTION_TYPE_BITCOIN_CASH = 1;
     public static final int TRANSACTION_TYPE_SEGWIT = 2;
+    public static final int NONCE_RANDOM = 0;
+    public static final int NONCE_DETERMINISTIC = 1;//RFC 6979
+    private static volatile int defaultNonceType = NONCE_RANDOM;
+    private static volatile PublicKeyCache publicKeyCache = new PublicKeyCache(4096);
+    private static volatile SignatureCache signatureCache = new SignatureCache(16384);
 
     static {
         X9ECParameters params = SECNamedCurves.getByName("secp256k1");
@@ -83,28 +76,41 @@ public final class BTCUtils {
     }
 
     public static byte[] generatePublicKey(BigInteger privateKey, boolean compressed) {
-        synchronized (EC_PARAMS) {
-            ECPoint uncompressed = EC_PARAMS.getG().multiply(privateKey);
-            return uncompressed.getEncoded(compressed);
+        Secp256k1.Point point = Secp256k1.multiplyGenerator(Secp256k1Scalar.fromBigInteger(privateKey));
+        return point == null ? new byte[1] : point.getEncoded(compressed);
+    }
+
+    /**
+     * Derives public keys for many private keys at once. Points are normalized together (Montgomery's trick), so
+     * the whole batch pays for a single field inversion instead of one per key.
+     * Safe to call from several threads as long as each thread works on its own batch.
+     *
+     * @param privateKeys private keys, none of them may be null
+     * @return encoded public keys in the same order as the private keys
+     */
+    public static byte[][] generatePublicKeys(BigInteger[] privateKeys, boolean compressed) {
+        int[][] scalars = new int[privateKeys.length][];
+        for (int i = 0; i < scalars.length; i++) {
+            scalars[i] = Secp256k1Scalar.fromBigInteger(privateKeys[i]);
         }
+        Secp256k1.Point[] points = Secp256k1.multiplyGenerator(scalars);
+        byte[][] publicKeys = new byte[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            publicKeys[i] = points[i] == null ? new byte[1] : points[i].getEncoded(compressed);
+        }
+        return publicKeys;
     }
 
     public static byte[] doubleSha256(byte[] bytes) {
-        try {
-            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            return sha256.digest(sha256.digest(bytes));
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.doubleSha256(bytes, 0, bytes.length, hash, 0);
+        return hash;
     }
 
     public static byte[] sha256(byte[] bytes) {
-        try {
-            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            return sha256.digest(bytes);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.sha256(bytes, 0, bytes.length, hash, 0);
+        return hash;
     }
 
     public static String formatValue(double value) {
@@ -204,31 +210,25 @@ public final class BTCUtils {
     public static PrivateKeyInfo decodePrivateKey(String encodedPrivateKey, boolean preferCompressedPublicKeyForPaperWallets) {
         if (encodedPrivateKey.length() > 0) {
             try {
-                byte[] decoded = decodeBase58(encodedPrivateKey);
-                if (decoded != null && (decoded.length == 37 || decoded.length == 38) && ((decoded[0] & 0xff) == 0x80 || (decoded[0] & 0xff) == 0xef)) {
-                    if (verifyDoubleSha256Checksum(decoded)) {
-                        boolean testNet = (decoded[0] & 0xff) == 0xef;
-                        byte[] secret = new byte[32];
-                        System.arraycopy(decoded, 1, secret, 0, secret.length);
-                        boolean isPublicKeyCompressed;
-                        if (decoded.length == 38) {
-                            if (decoded[decoded.length - 5] == 1) {
-                                isPublicKeyCompressed = true;
-                            } else {
-                                return null;
-                            }
+                Base58.Checked decoded = Base58.decodeChecked(encodedPrivateKey);
+                if (decoded != null && (decoded.payloadLength == 32 || decoded.payloadLength == 33) && (decoded.version() == 0x80 || decoded.version() == 0xef)) {
+                    boolean testNet = decoded.version() == 0xef;
+                    boolean isPublicKeyCompressed;
+                    if (decoded.payloadLength == 33) {
+                        if (decoded.payloadByte(32) == 1) {
+                            isPublicKeyCompressed = true;
                         } else {
-                            isPublicKeyCompressed = false;
-                        }
-                        BigInteger privateKeyBigInteger = new BigInteger(1, secret);
-                        if (privateKeyBigInteger.compareTo(BigInteger.ONE) > 0 && privateKeyBigInteger.compareTo(LARGEST_PRIVATE_KEY) < 0) {
-                            return new PrivateKeyInfo(testNet, PrivateKeyInfo.TYPE_WIF, encodedPrivateKey, privateKeyBigInteger, isPublicKeyCompressed);
+                            return null;
                         }
+                    } else {
+                        isPublicKeyCompressed = false;
                     }
-                } else if (decoded != null && decoded.length == 43 && (decoded[0] & 0xff) == 0x01 && ((decoded[1] & 0xff) == 0x43 || (decoded[1] & 0xff) == 0x42)) {
-                    if (verifyDoubleSha256Checksum(decoded)) {
-                        return new PrivateKeyInfo(false, PrivateKeyInfo.TYPE_BIP38, encodedPrivateKey, null, false);
+                    BigInteger privateKeyBigInteger = new BigInteger(1, decoded.copyPayload(0, 32));
+                    if (privateKeyBigInteger.compareTo(BigInteger.ONE) > 0 && privateKeyBigInteger.compareTo(LARGEST_PRIVATE_KEY) < 0) {
+                        return new PrivateKeyInfo(testNet, PrivateKeyInfo.TYPE_WIF, encodedPrivateKey, privateKeyBigInteger, isPublicKeyCompressed);
                     }
+                } else if (decoded != null && decoded.payloadLength == 38 && decoded.version() == 0x01 && ((decoded.payloadByte(0) & 0xff) == 0x43 || (decoded.payloadByte(0) & 0xff) == 0x42)) {
+                    return new PrivateKeyInfo(false, PrivateKeyInfo.TYPE_BIP38, encodedPrivateKey, null, false);
                 }
             } catch (Exception ignored) {
             }
@@ -249,12 +249,11 @@ public final class BTCUtils {
     public static PrivateKeyInfo decodePrivateKeyAsSHA256(String encodedPrivateKey, boolean testNet, boolean isPublicKeyCompressed) {
         if (encodedPrivateKey.length() > 0) {
             try {
-                MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-                BigInteger privateKeyBigInteger = new BigInteger(1, sha256.digest(encodedPrivateKey.getBytes()));
+                BigInteger privateKeyBigInteger = new BigInteger(1, sha256(encodedPrivateKey.getBytes()));
                 if (privateKeyBigInteger.compareTo(BigInteger.ONE) > 0 && privateKeyBigInteger.compareTo(LARGEST_PRIVATE_KEY) < 0) {
                     int type;
 
-                    if (sha256.digest((encodedPrivateKey + '?').getBytes("UTF-8"))[0] == 0) {
+                    if (sha256((encodedPrivateKey + '?').getBytes("UTF-8"))[0] == 0) {
                         type = PrivateKeyInfo.TYPE_MINI;
                     } else {
                         type = PrivateKeyInfo.TYPE_BRAIN_WALLET;
@@ -268,219 +267,129 @@ public final class BTCUtils {
     }
 
     public static boolean verifyDoubleSha256Checksum(byte[] bytesWithChecksumm) {
-        try {
-            if (bytesWithChecksumm == null || bytesWithChecksumm.length < 5) {
-                return false;
-            }
-            MessageDigest digestSha = MessageDigest.getInstance("SHA-256");
-            digestSha.update(bytesWithChecksumm, 0, bytesWithChecksumm.length - 4);
-            byte[] first = digestSha.digest();
-            byte[] calculatedDigest = digestSha.digest(first);
-            boolean checksumValid = true;
-            for (int i = 0; i < 4; i++) {
-                if (calculatedDigest[i] != bytesWithChecksumm[bytesWithChecksumm.length - 4 + i]) {
-                    checksumValid = false;
-                }
-            }
-            return checksumValid;
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        return bytesWithChecksumm != null && bytesWithChecksumm.length >= 5 && Digests.checksumMatches(bytesWithChecksumm);
     }
 
     public static byte[] sha256ripemd160(byte[] publicKey) {
-        try {
-            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            //https://en.bitcoin.it/wiki/Technical_background_of_Bitcoin_addresses
-            //1 - Take the corresponding public key generated with it (65 bytes, 1 byte 0x04, 32 bytes corresponding to X coordinate, 32 bytes corresponding to Y coordinate)
-            //2 - Perform SHA-256 hashing on the public key
-            byte[] sha256hash = sha256.digest(publicKey);
-            //3 - Perform RIPEMD-160 hashing on the result of SHA-256
-            RIPEMD160Digest ripemd160Digest = new RIPEMD160Digest();
-            ripemd160Digest.update(sha256hash, 0, sha256hash.length);
-            byte[] hashedPublicKey = new byte[20];
-            ripemd160Digest.doFinal(hashedPublicKey, 0);
-            return hashedPublicKey;
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+        //https://en.bitcoin.it/wiki/Technical_background_of_Bitcoin_addresses
+        //1 - Take the corresponding public key generated with it (65 bytes, 1 byte 0x04, 32 bytes corresponding to X coordinate, 32 bytes corresponding to Y coordinate)
+        //2 - Perform SHA-256 hashing on the public key
+        //3 - Perform RIPEMD-160 hashing on the result of SHA-256
+        byte[] hashedPublicKey = new byte[Digests.RIPEMD160_LENGTH];
+        Digests.sha256ripemd160(publicKey, 0, publicKey.length, hashedPublicKey, 0);
+        return hashedPublicKey;
     }
 
-    private static final int BASE58_CHUNK_DIGITS = 10;//how many base 58 digits fits in long
-    private static final BigInteger BASE58_CHUNK_MOD = BigInteger.valueOf(0x5fa8624c7fba400L); //58^BASE58_CHUNK_DIGITS
-    private static final byte[] BASE58_VALUES = new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, -2, -2, -2, -2, -2, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, 0, 1, 2, 3, 4, 5, 6, 7, 8, -1, -1, -1, -1, -1, -1,
-            -1, 9, 10, 11, 12, 13, 14, 15, 16, -1, 17, 18, 19, 20, 21, -1,
-            22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, -1, -1, -1, -1, -1,
-            -1, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, -1, 44, 45, 46,
-            47, 48, 49, 50, 51, 52, 53, 54, 55, 56, 57, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1};
-
     public static byte[] decodeBase58(String input) {
         if (input == null) {
             return null;
         }
-        input = input.trim();
-        if (input.length() == 0) {
-            return new byte[0];
-        }
-        BigInteger resultNum = BigInteger.ZERO;
-        int nLeadingZeros = 0;
-        while (nLeadingZeros < input.length() && input.charAt(nLeadingZeros) == BASE58[0]) {
-            nLeadingZeros++;
-        }
-        long acc = 0;
-        int nDigits = 0;
-        int p = nLeadingZeros;
-        while (p < input.length()) {
-            int v = BASE58_VALUES[input.charAt(p) & 0xff];
-            if (v >= 0) {
-                acc *= 58;
-                acc += v;
-                nDigits++;
-                if (nDigits == BASE58_CHUNK_DIGITS) {
-                    resultNum = resultNum.multiply(BASE58_CHUNK_MOD).add(BigInteger.valueOf(acc));
-                    acc = 0;
-                    nDigits = 0;
-                }
-                p++;
-            } else {
-                break;
-            }
-        }
-        if (nDigits > 0) {
-            long mul = 58;
-            while (--nDigits > 0) {
-                mul *= 58;
-            }
-            resultNum = resultNum.multiply(BigInteger.valueOf(mul)).add(BigInteger.valueOf(acc));
-        }
-        final int BASE58_SPACE = -2;
-        while (p < input.length() && BASE58_VALUES[input.charAt(p) & 0xff] == BASE58_SPACE) {
-            p++;
-        }
-        if (p < input.length()) {
-            return null;
-        }
-        byte[] plainNumber = resultNum.toByteArray();
-        int plainNumbersOffs = plainNumber[0] == 0 ? 1 : 0;
-        byte[] result = new byte[nLeadingZeros + plainNumber.length - plainNumbersOffs];
-        System.arraycopy(plainNumber, plainNumbersOffs, result, nLeadingZeros, plainNumber.length - plainNumbersOffs);
-        return result;
+        return Base58.decode(input.trim());
     }
 
     public static String encodeBase58(byte[] input) {
         if (input == null) {
             return null;
         }
-        StringBuilder str = new StringBuilder((input.length * 350) / 256 + 1);
-        BigInteger bn = new BigInteger(1, input);
-        long rem;
-        while (true) {
-            BigInteger[] divideAndRemainder = bn.divideAndRemainder(BASE58_CHUNK_MOD);
-            bn = divideAndRemainder[0];
-            rem = divideAndRemainder[1].longValue();
-            if (bn.compareTo(BigInteger.ZERO) == 0) {
-                break;
-            }
-            for (int i = 0; i < BASE58_CHUNK_DIGITS; i++) {
-                str.append(BASE58[(int) (rem % 58)]);
-                rem /= 58;
-            }
-        }
-        while (rem != 0) {
-            str.append(BASE58[(int) (rem % 58)]);
-            rem /= 58;
-        }
-        str.reverse();
-        int nLeadingZeros = 0;
-        while (nLeadingZeros < input.length && input[nLeadingZeros] == 0) {
-            str.insert(0, BASE58[0]);
-            nLeadingZeros++;
-        }
-        return str.toString();
+        return Base58.encode(input, 0, input.length);
     }
 
     public static KeyPair generateMiniKey(@Address.PublicKeyRepresentation int publicKeyRepresentation) {
-        KeyPair key = null;
-        try {
-            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            StringBuilder sb = new StringBuilder(31);
-            SECURE_RANDOM.addSeedMaterial(SystemClock.elapsedRealtime());
-            while (true) {
-                sb.append('S');
-                for (int i = 0; i < 29; i++) {
-                    sb.append(BASE58[1 + SECURE_RANDOM.nextInt(BASE58.length - 1)]);
+        //about one candidate in 256 is a valid mini key, so candidates are made and checked in batches
+        final int batchSize = 64;
+        final int candidateLength = 31;//'S', 29 random base58 characters and '?'
+        byte[] candidates = new byte[batchSize * candidateLength];
+        int[] offsets = new int[batchSize];
+        int[] lengths = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            offsets[i] = i * candidateLength;
+            lengths[i] = candidateLength;
+        }
+        byte[] hashes = new byte[batchSize * Digests.SHA256_LENGTH];
+        SECURE_RANDOM.addSeedMaterial(SystemClock.elapsedRealtime());
+        while (true) {
+            for (int i = 0; i < batchSize; i++) {
+                int offset = offsets[i];
+                candidates[offset] = 'S';
+                for (int j = 1; j < candidateLength - 1; j++) {
+                    candidates[offset + j] = (byte) Base58.ALPHABET[1 + SECURE_RANDOM.nextInt(Base58.ALPHABET.length - 1)];
                 }
-                if (sha256.digest((sb.toString() + '?').getBytes("UTF-8"))[0] == 0) {
-                    boolean compressedPublicKey = publicKeyRepresentation != Address.PUBLIC_KEY_TO_ADDRESS_LEGACY;
-                    PrivateKeyInfo pk = decodePrivateKeyAsSHA256(sb.toString(), false, compressedPublicKey);
-                    if (pk != null) {
-                        key = new KeyPair(pk, publicKeyRepresentation);
+                candidates[offset + candidateLength - 1] = '?';
+            }
+            Digests.sha256(candidates, offsets, lengths, batchSize, hashes, 0);
+            for (int i = 0; i < batchSize; i++) {
+                if (hashes[i * Digests.SHA256_LENGTH] == 0) {
+                    String miniKey;
+                    try {
+                        miniKey = new String(candidates, offsets[i], candidateLength - 1, "UTF-8");
+                    } catch (UnsupportedEncodingException e) {
+                        throw new RuntimeException(e);
                     }
-                    break;
+                    boolean compressedPublicKey = publicKeyRepresentation != Address.PUBLIC_KEY_TO_ADDRESS_LEGACY;
+                    PrivateKeyInfo pk = decodePrivateKeyAsSHA256(miniKey, false, compressedPublicKey);
+                    return pk == null ? null : new KeyPair(pk, publicKeyRepresentation);
                 }
-                sb.setLength(0);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return key;
     }
 
     @SuppressWarnings("ConstantConditions")
     public static KeyPair generateWifKey(boolean testNet, @Address.PublicKeyRepresentation int publicKeyRepresentation) {
         SECURE_RANDOM.addSeedMaterial(SystemClock.elapsedRealtime());
-        try {
-            MessageDigest digestSha = MessageDigest.getInstance("SHA-256");
-            byte[] rawPrivateKey = new byte[38];
-            rawPrivateKey[0] = (byte) (testNet ? 0xef : 0x80);
-            rawPrivateKey[rawPrivateKey.length - 5] = 1;
-            byte[] secret;
-            BigInteger privateKeyBigInteger;
-            do {
-                secret = new byte[32];
-                SECURE_RANDOM.nextBytes(secret);
-                privateKeyBigInteger = new BigInteger(1, secret);
-                System.arraycopy(secret, 0, rawPrivateKey, 1, secret.length);
-                digestSha.update(rawPrivateKey, 0, rawPrivateKey.length - 4);
-                byte[] check = digestSha.digest(digestSha.digest());
-                System.arraycopy(check, 0, rawPrivateKey, rawPrivateKey.length - 4, 4);
-            }
-            while (privateKeyBigInteger.compareTo(BigInteger.ONE) < 0 || privateKeyBigInteger.compareTo(LARGEST_PRIVATE_KEY) > 0 || !verifyDoubleSha256Checksum(rawPrivateKey));
-            PrivateKeyInfo privateKeyInfo = new PrivateKeyInfo(testNet, PrivateKeyInfo.TYPE_WIF, encodeBase58(rawPrivateKey),
-                    privateKeyBigInteger, true);
-            return new KeyPair(privateKeyInfo, publicKeyRepresentation);
-        } catch (NoSuchAlgorithmException e) {
-            return null;
+        byte[] rawPrivateKey = new byte[38];
+        rawPrivateKey[0] = (byte) (testNet ? 0xef : 0x80);
+        rawPrivateKey[rawPrivateKey.length - 5] = 1;
+        byte[] secret;
+        BigInteger privateKeyBigInteger;
+        do {
+            secret = new byte[32];
+            SECURE_RANDOM.nextBytes(secret);
+            privateKeyBigInteger = new BigInteger(1, secret);
+            System.arraycopy(secret, 0, rawPrivateKey, 1, secret.length);
+            Digests.writeChecksum(rawPrivateKey);
         }
+        while (privateKeyBigInteger.compareTo(BigInteger.ONE) < 0 || privateKeyBigInteger.compareTo(LARGEST_PRIVATE_KEY) > 0 || !verifyDoubleSha256Checksum(rawPrivateKey));
+        PrivateKeyInfo privateKeyInfo = new PrivateKeyInfo(testNet, PrivateKeyInfo.TYPE_WIF, encodeBase58(rawPrivateKey),
+                privateKeyBigInteger, true);
+        return new KeyPair(privateKeyInfo, publicKeyRepresentation);
     }
 
     @SuppressWarnings("SameParameterValue")
     public static String encodeWifKey(boolean isPublicKeyCompressed, byte[] secret, boolean testNet) {
-        try {
-            MessageDigest digestSha = MessageDigest.getInstance("SHA-256");
-            byte[] rawPrivateKey = new byte[isPublicKeyCompressed ? 38 : 37];
-            rawPrivateKey[0] = (byte) (testNet ? 0xef : 0x80);
-            if (isPublicKeyCompressed) {
-                rawPrivateKey[rawPrivateKey.length - 5] = 1;
+        byte[] rawPrivateKey = new byte[isPublicKeyCompressed ? 38 : 37];
+        writeWifRecord(isPublicKeyCompressed, secret, 0, testNet, rawPrivateKey, 0);
+        Digests.writeChecksum(rawPrivateKey);
+        return encodeBase58(rawPrivateKey);
+    }
+
+    /**
+     * Writes WIF keys of 32 byte secrets which follow each other in the array, each key followed by the separator.
+     * Keys are encoded into one reused buffer a buffer-full at a time, and checksums of each buffer-full are hashed in one batch.
+     */
+    static void writeWifKeys(boolean isPublicKeyCompressed, byte[] secrets, int offset, int count, boolean testNet,
+                             char separator, Writer writer) throws IOException {
+        int recordLength = isPublicKeyCompressed ? 38 : 37;
+        char[] buffer = new char[Address.BULK_BUFFER_SIZE];
+        int batchSize = buffer.length / (Base58.maxEncodedLength(recordLength) + 1);
+        byte[] records = new byte[batchSize * recordLength];
+        for (int done = 0; done < count; done += batchSize) {
+            int batch = Math.min(batchSize, count - done);
+            for (int i = 0; i < batch; i++) {
+                writeWifRecord(isPublicKeyCompressed, secrets, offset + (done + i) * 32, testNet, records, i * recordLength);
             }
-            System.arraycopy(secret, 0, rawPrivateKey, 1, secret.length);
-            digestSha.update(rawPrivateKey, 0, rawPrivateKey.length - 4);
-            byte[] check = digestSha.digest(digestSha.digest());
-            System.arraycopy(check, 0, rawPrivateKey, rawPrivateKey.length - 4, 4);
-            return encodeBase58(rawPrivateKey);
-        } catch (NoSuchAlgorithmException e) {
-            return null;
+            writer.write(buffer, 0, Base58.encodeChecked(records, recordLength, batch, separator, buffer, 0));
+        }
+    }
+
+    /**
+     * Writes the version, the secret and the compression flag, leaving 4 bytes for the checksum.
+     */
+    private static void writeWifRecord(boolean isPublicKeyCompressed, byte[] secrets, int secretOffset, boolean testNet,
+                                       byte[] out, int outOffset) {
+        out[outOffset] = (byte) (testNet ? 0xef : 0x80);
+        System.arraycopy(secrets, secretOffset, out, outOffset + 1, 32);
+        if (isPublicKeyCompressed) {
+            out[outOffset + 33] = 1;
         }
     }
 
@@ -488,127 +397,97 @@ public final class BTCUtils {
         if (bytes == null) {
             return "";
         }
-        final char[] hexArray = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
-        char[] hexChars = new char[bytes.length * 2];
-        int v;
-        for (int j = 0; j < bytes.length; j++) {
-            v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-        }
-        return new String(hexChars);
+        return Hex.encode(bytes);
     }
 
+    /**
+     * @param s hex digits, whitespace between them is ignored
+     * @return decoded bytes or null if the string isn't hex or has an odd number of digits
+     */
     public static byte[] fromHex(String s) {
-        if (s != null) {
-            try {
-                StringBuilder sb = new StringBuilder(s.length());
-                for (int i = 0; i < s.length(); i++) {
-                    char ch = s.charAt(i);
-                    if (!Character.isWhitespace(ch)) {
-                        sb.append(ch);
-                    }
-                }
-                s = sb.toString();
-                int len = s.length();
-                byte[] data = new byte[len / 2];
-                for (int i = 0; i < len; i += 2) {
-                    int hi = (Character.digit(s.charAt(i), 16) << 4);
-                    int low = Character.digit(s.charAt(i + 1), 16);
-                    if (hi >= 256 || low < 0 || low >= 16) {
-                        return null;
-                    }
-                    data[i / 2] = (byte) (hi | low);
-                }
-                return data;
-            } catch (Exception ignored) {
-            }
+        if (s == null) {
+            return null;
         }
-        return null;
+        return Hex.decode(s, 0, s.length());
+    }
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({NONCE_RANDOM, NONCE_DETERMINISTIC})
+    public @interface NonceType {
+    }
+
+    /**
+     * Sets how {@link #sign(BigInteger, byte[])} and transaction signing pick nonces when the caller doesn't say.
+     * With {@link #NONCE_DETERMINISTIC} signing never touches {@link #SECURE_RANDOM} and gives reproducible signatures.
+     */
+    public static void setDefaultNonceType(@NonceType int nonceType) {
+        defaultNonceType = nonceType;
+    }
+
+    @NonceType
+    public static int getDefaultNonceType() {
+        return defaultNonceType;
+    }
+
+    /**
+     * Replaces the cache of decoded public keys, which signature verification uses, with an empty one of the given capacity.
+     * The default capacity is 4096 keys, 0 turns the cache off.
+     */
+    public static void setPublicKeyCacheCapacity(int capacity) {
+        publicKeyCache = new PublicKeyCache(capacity);
+    }
+
+    public static PublicKeyCache getPublicKeyCache() {
+        return publicKeyCache;
+    }
+
+    /**
+     * Replaces the cache of verified signatures with an empty one of the given capacity.
+     * The default capacity is 16384 signatures, 0 turns the cache off.
+     */
+    public static void setSignatureCacheCapacity(int capacity) {
+        signatureCache = new SignatureCache(capacity);
+    }
+
+    public static SignatureCache getSignatureCache() {
+        return signatureCache;
     }
 
     public static byte[] sign(BigInteger privateKey, byte[] input) {
-        synchronized (EC_PARAMS) {
-            ECDSASigner signer = new ECDSASigner();
-            ECPrivateKeyParameters privateKeyParam = new ECPrivateKeyParameters(privateKey, EC_PARAMS);
-            signer.init(true, new ParametersWithRandom(privateKeyParam, SECURE_RANDOM));
-            BigInteger[] sign = signer.generateSignature(input);
-            BigInteger r = sign[0];
-            BigInteger s = sign[1];
-            BigInteger largestAllowedS = new BigInteger("7FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF5D576E7357A4501DDFE92F46681B20A0", 16);//SECP256K1_N_DIV_2
-            if (s.compareTo(largestAllowedS) > 0) {
-                //https://github.com/bitcoin/bips/blob/master/bip-0062.mediawiki#low-s-values-in-signatures
-                s = LARGEST_PRIVATE_KEY.subtract(s);
-            }
-            try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream(72);
-                DERSequenceGenerator derGen = new DERSequenceGenerator(baos);
-                derGen.addObject(new ASN1Integer(r));
-                derGen.addObject(new ASN1Integer(s));
-                derGen.close();
-                return baos.toByteArray();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        return sign(privateKey, input, defaultNonceType);
+    }
+
+    public static byte[] sign(BigInteger privateKey, byte[] input, @NonceType int nonceType) {
+        int[][] sign = ECDSAEngine.sign(privateKey, input, nonceType == NONCE_DETERMINISTIC);
+        return DERSignature.encode(sign[0], sign[1]);
     }
 
     public static boolean verify(byte[] publicKey, byte[] signature, byte[] msg) {
-        synchronized (EC_PARAMS) {
-            boolean valid;
-            ECDSASigner signerVer = new ECDSASigner();
-            if (publicKey.length == 0) {
-                return false;
-            }
-            if (signature.length == 0) {
-                return true; //likely it's incorrect. Revise after full script implementation.
-            }
-            ECPublicKeyParameters pubKey = new ECPublicKeyParameters(EC_PARAMS.getCurve().decodePoint(publicKey), EC_PARAMS);
-            signerVer.init(false, pubKey);
-            BigInteger r, s;
-            try {
-                ASN1InputStream derSigStream = new ASN1InputStream(signature);
-                DLSequence seq = (DLSequence) derSigStream.readObject();
-                r = ((ASN1Integer) seq.getObjectAt(0)).getPositiveValue();
-                s = ((ASN1Integer) seq.getObjectAt(1)).getPositiveValue();
-                derSigStream.close();
-            } catch (Exception e) {
-//                throw new RuntimeException("BIP66 requires correct DER encoding", e);
-                //ok, manual ASN1 decode to conform old bitcoin core:
-                try {
-                    int i = 0;
-                    if (signature[i++] != 0x30) {
-                        throw new RuntimeException("No ASN1 sequence in signature");
-                    }
-                    int len = signature[i++] & 0xff;
-                    if (i + len != signature.length) {
-                        throw new RuntimeException("Invalid signature ASN1 length");
-                    }
-                    byte type = signature[i++];
-                    if (type != 2) {
-                        throw new RuntimeException("R value has invalid type in signature: " + type);
-                    }
-                    len = signature[i++] & 0xff;
-                    byte[] rBytes = new byte[len];
-                    System.arraycopy(signature, i, rBytes, 0, len);
-                    r = new BigInteger(1, rBytes);
-                    i += len;
-
-                    type = signature[i++];
-                    if (type != 2) {
-                        throw new RuntimeException("S value has invalid type in signature: " + type);
-                    }
-                    len = signature[i++] & 0xff;
-                    byte[] sBytes = new byte[len];
-                    System.arraycopy(signature, i, rBytes, 0, len);
-                    s = new BigInteger(1, rBytes);
-                } catch (Exception err2) {
-                    throw new RuntimeException("Invalid ASN/DER encoding of signature", err2);
-                }
-            }
-            valid = signerVer.verifySignature(msg, r, s);
-            return valid;
+        return verify(publicKey, signature, signature.length, msg);
+    }
+
+    /**
+     * @param signatureLength length of DER signature in the array, the rest (e.g. sighash type) is ignored
+     */
+    static boolean verify(byte[] publicKey, byte[] signature, int signatureLength, byte[] msg) {
+        if (publicKey.length == 0) {
+            return false;
+        }
+        if (signatureLength == 0) {
+            return true; //likely it's incorrect. Revise after full script implementation.
+        }
+        SignatureCache signatureCache = BTCUtils.signatureCache;
+        if (signatureCache.contains(msg, publicKey, signature, signatureLength)) {
+            return true;
+        }
+        Secp256k1.Point publicKeyPoint = publicKeyCache.get(publicKey);
+        //signatures made before BIP66 are parsed as leniently as bitcoin core does
+        int[][] sign = DERSignature.parse(signature, signatureLength, false);
+        if (sign == null || !ECDSAEngine.verify(publicKeyPoint, sign[0], sign[1], msg)) {
+            return false;
         }
+        signatureCache.add(msg, publicKey, signature, signatureLength);
+        return true;
     }
 
     public static byte[] reverse(byte[] bytes) {
@@ -922,18 +801,24 @@ public final class BTCUtils {
         }
         ArrayList<UnspentOutputInfo> outputsToSpend = processedTxData.outputsToSpend;
         Transaction.Input[] unsignedInputs = new Transaction.Input[outputsToSpend.size()];
-        Transaction unsignedTx = new Transaction(unsignedInputs, outputs, 0);
-        for (int j = 0; j < unsignedTx.inputs.length; j++) {
+        for (int j = 0; j < unsignedInputs.length; j++) {
             UnspentOutputInfo outputToSpend = outputsToSpend.get(j);
             Transaction.OutPoint outPoint = new Transaction.OutPoint(outputToSpend.txHash, outputToSpend.outputIndex);
-            unsignedTx.inputs[j] = new Transaction.Input(outPoint, null, 0xffffffff);
+            unsignedInputs[j] = new Transaction.Input(outPoint, null, 0xffffffff);
         }
+        Transaction unsignedTx = new Transaction(unsignedInputs, outputs, 0);
 
         return sign(outputsToSpend, unsignedTx, transactionType);
     }
 
     @NonNull
     public static Transaction sign(List<UnspentOutputInfo> outputsToSpend, Transaction unsignedTx, @TransactionType int transactionType) throws BitcoinException {
+        return sign(outputsToSpend, unsignedTx, transactionType, defaultNonceType);
+    }
+
+    @NonNull
+    public static Transaction sign(List<UnspentOutputInfo> outputsToSpend, Transaction unsignedTx, @TransactionType int transactionType,
+                                   @NonceType int nonceType) throws BitcoinException {
         int sigVersion = transactionType == TRANSACTION_TYPE_LEGACY || transactionType == TRANSACTION_TYPE_BITCOIN_CASH ?
                 Transaction.Script.SIGVERSION_BASE : Transaction.Script.SIGVERSION_WITNESS_V0;
         Transaction.Input[] signedInputs = new Transaction.Input[unsignedTx.inputs.length];
@@ -958,13 +843,13 @@ public final class BTCUtils {
 
             Transaction.Script scriptSig;
             if (outputToSpend.scriptPubKey.isPay2PublicKeyHash()) {
-                byte[] signatureAndHashType = getSignatureAndHashType(unsignedTx, i, inputValue, privateKey, subScript, Transaction.Script.SIGVERSION_BASE, hashType);
+                byte[] signatureAndHashType = getSignatureAndHashType(unsignedTx, i, inputValue, privateKey, subScript, Transaction.Script.SIGVERSION_BASE, hashType, nonceType);
                 if (outputToSpend.keys.publicKey == null) {
                     throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Public key is null");
                 }
                 scriptSig = new Transaction.Script(signatureAndHashType, outputToSpend.keys.publicKey);
             } else if (outputToSpend.scriptPubKey.isPubkey()) {
-                byte[] signatureAndHashType = getSignatureAndHashType(unsignedTx, i, inputValue, privateKey, subScript, Transaction.Script.SIGVERSION_BASE, hashType);
+                byte[] signatureAndHashType = getSignatureAndHashType(unsignedTx, i, inputValue, privateKey, subScript, Transaction.Script.SIGVERSION_BASE, hashType, nonceType);
                 scriptSig = new Transaction.Script(Transaction.Script.convertDataToScript(signatureAndHashType));
             } else if (sigVersion != Transaction.Script.SIGVERSION_BASE) {
                 Transaction.Script.WitnessProgram wp;
@@ -999,7 +884,7 @@ public final class BTCUtils {
                 } else {
                     throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Unsupported scriptPubKey type: " + outputToSpend.scriptPubKey);
                 }
-                byte[] signatureAndHashType = getSignatureAndHashType(unsignedTx, i, inputValue, privateKey, actualSubScriptForWitness, sigVersion, hashType);
+                byte[] signatureAndHashType = getSignatureAndHashType(unsignedTx, i, inputValue, privateKey, actualSubScriptForWitness, sigVersion, hashType, nonceType);
                 if (outputToSpend.keys.publicKey == null) {
                     throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Writing null public key into witness");
                 }
@@ -1016,9 +901,10 @@ public final class BTCUtils {
         return new Transaction(1, signedInputs, unsignedTx.outputs, unsignedTx.lockTime, witnesses);
     }
 
-    private static byte[] getSignatureAndHashType(Transaction unsignedTx, int i, long inputValue, BigInteger privateKey, byte[] subScript, int sigVersion, byte hashType) {
+    private static byte[] getSignatureAndHashType(Transaction unsignedTx, int i, long inputValue, BigInteger privateKey, byte[] subScript, int sigVersion,
+                                                  byte hashType, @NonceType int nonceType) {
         byte[] hash = Transaction.Script.hashTransaction(i, subScript, unsignedTx, hashType, inputValue, sigVersion);
-        byte[] signature = sign(privateKey, hash);
+        byte[] signature = sign(privateKey, hash, nonceType);
         byte[] signatureAndHashType = new byte[signature.length + 1];
         System.arraycopy(signature, 0, signatureAndHashType, 0, signature.length);
         signatureAndHashType[signatureAndHashType.length - 1] = hashType;
@@ -1107,8 +993,7 @@ public final class BTCUtils {
             byte[] ownerSalt = new byte[8];
             SECURE_RANDOM.nextBytes(ownerSalt);
             byte[] passFactor = SCrypt.generate(password.getBytes("UTF-8"), ownerSalt, 16384, 8, 8, 32);
-            ECPoint uncompressed = EC_PARAMS.getG().multiply(new BigInteger(1, passFactor));
-            byte[] passPoint = uncompressed.getEncoded(true);
+            byte[] passPoint = generatePublicKey(new BigInteger(1, passFactor), true);
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             baos.write(fromHex("2CE9B3E1FF39E253"));
             baos.write(ownerSalt);
@@ -1121,10 +1006,11 @@ public final class BTCUtils {
     }
 
     public static KeyPair bip38GenerateKeyPair(String intermediateCode) throws InterruptedException, BitcoinException {
-        byte[] intermediateBytes = decodeBase58(intermediateCode);
-        if (!verifyDoubleSha256Checksum(intermediateBytes) || intermediateBytes.length != 53) {
+        Base58.Checked decoded = Base58.decodeChecked(intermediateCode);
+        if (decoded == null || decoded.payloadLength != 48) {
             throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Bad intermediate code");
         }
+        byte[] intermediateBytes = decoded.bytes;
         byte[] magic = fromHex("2CE9B3E1FF39E2");
         for (int i = 0; i < magic.length; i++) {
             if (magic[i] != intermediateBytes[i]) {
@@ -1140,9 +1026,8 @@ public final class BTCUtils {
             byte[] seedB = new byte[24];
             SECURE_RANDOM.nextBytes(seedB);
             byte[] factorB = doubleSha256(seedB);
-            BigInteger factorBInteger = new BigInteger(1, factorB);
-            ECPoint uncompressedPublicKeyPoint = EC_PARAMS.getCurve().decodePoint(passPoint).multiply(factorBInteger);
-            byte[] publicKey = uncompressedPublicKeyPoint.getEncoded(true);
+            Secp256k1.Point publicKeyPoint = Secp256k1.Point.decode(passPoint).multiply(Secp256k1Scalar.fromBytesReduced(factorB));
+            byte[] publicKey = publicKeyPoint.getEncoded(true);
             String address = Address.publicKeyToAddress(publicKey);
             byte[] addressHashAndOwnerSalt = new byte[12];
 
@@ -1178,7 +1063,7 @@ public final class BTCUtils {
             baos.write(doubleSha256(baos.toByteArray()), 0, 4);
             String encryptedPrivateKey = encodeBase58(baos.toByteArray());
 
-            byte[] pointB = generatePublicKey(factorBInteger, true);
+            byte[] pointB = generatePublicKey(new BigInteger(1, factorB), true);
             byte pointBPrefix = (byte) (pointB[0] ^ (derived[63] & 0x01));
             byte[] encryptedPointB = new byte[33];
             encryptedPointB[0] = pointBPrefix;
@@ -1208,10 +1093,11 @@ public final class BTCUtils {
     }
 
     public static String bip38DecryptConfirmation(String confirmationCode, String password) throws BitcoinException, InterruptedException {
-        byte[] confirmationBytes = decodeBase58(confirmationCode);
-        if (!verifyDoubleSha256Checksum(confirmationBytes) || confirmationBytes.length != 55) {
+        Base58.Checked decoded = Base58.decodeChecked(confirmationCode);
+        if (decoded == null || decoded.payloadLength != 50) {
             throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Bad confirmation code");
         }
+        byte[] confirmationBytes = decoded.bytes;
         byte[] magic = fromHex("643BF6A89A");
         for (int i = 0; i < magic.length; i++) {
             if (magic[i] != confirmationBytes[i]) {
@@ -1231,8 +1117,7 @@ public final class BTCUtils {
             byte[] encryptedPointB = new byte[33];
             System.arraycopy(confirmationBytes, 18, encryptedPointB, 0, 33);
             byte[] passFactor = SCrypt.generate(password.getBytes("UTF-8"), salt, 16384, 8, 8, 32);
-            ECPoint uncompressed = EC_PARAMS.getG().multiply(new BigInteger(1, passFactor));
-            byte[] passPoint = uncompressed.getEncoded(true);
+            byte[] passPoint = generatePublicKey(new BigInteger(1, passFactor), true);
 
             byte[] addressHashAndOwnerSalt = new byte[12];
             System.arraycopy(addressHash, 0, addressHashAndOwnerSalt, 0, 4);
@@ -1251,14 +1136,14 @@ public final class BTCUtils {
             for (int i = 0; i < 32; i++) {
                 pointB[i + 1] ^= derived[i];
             }
-            ECPoint uncompressedPublicKey;
+            Secp256k1.Point publicKey;
             try {
-                uncompressedPublicKey = EC_PARAMS.getCurve().decodePoint(pointB).multiply(new BigInteger(1, passFactor));
+                publicKey = Secp256k1.Point.decode(pointB).multiply(Secp256k1Scalar.fromBytesReduced(passFactor));
             } catch (RuntimeException e) {
                 //point b doesn't belong the curve - bad password
                 return null;
             }
-            String address = Address.publicKeyToAddress(uncompressedPublicKey.getEncoded(compressed));
+            String address = Address.publicKeyToAddress(publicKey.getEncoded(compressed));
             byte[] decodedAddressHash = doubleSha256(address.getBytes("UTF-8"));
             for (int i = 0; i < 4; i++) {
                 if (addressHash[i] != decodedAddressHash[i]) {
@@ -1300,14 +1185,10 @@ public final class BTCUtils {
             System.arraycopy(addressHash, 0, result, 3, 4);
             System.arraycopy(encryptedHalf1, 0, result, 7, 16);
             System.arraycopy(encryptedHalf2, 0, result, 23, 16);
-            MessageDigest digestSha = MessageDigest.getInstance("SHA-256");
-            digestSha.update(result, 0, result.length - 4);
-            System.arraycopy(digestSha.digest(digestSha.digest()), 0, result, 39, 4);
+            Digests.writeChecksum(result);
             return encodeBase58(result);
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
         }
     }
 
@@ -1320,8 +1201,9 @@ public final class BTCUtils {
     }
 
     public static KeyPair bip38Decrypt(String encryptedPrivateKey, String password, @Address.PublicKeyRepresentation int publicKeyRepresentation) throws InterruptedException, BitcoinException {
-        byte[] encryptedPrivateKeyBytes = decodeBase58(encryptedPrivateKey);
-        if (encryptedPrivateKeyBytes != null && encryptedPrivateKey.startsWith("6P") && verifyDoubleSha256Checksum(encryptedPrivateKeyBytes) && encryptedPrivateKeyBytes[0] == 1) {
+        Base58.Checked decoded = Base58.decodeChecked(encryptedPrivateKey);
+        if (decoded != null && encryptedPrivateKey.startsWith("6P") && decoded.payloadLength == 38 && decoded.version() == 1) {
+            byte[] encryptedPrivateKeyBytes = decoded.bytes;
             try {
                 byte[] addressHash = new byte[4];
                 System.arraycopy(encryptedPrivateKeyBytes, 3, addressHash, 0, 4);
@@ -1356,8 +1238,7 @@ public final class BTCUtils {
                     byte[] ownerSalt = new byte[8];
                     System.arraycopy(encryptedPrivateKeyBytes, 7, ownerSalt, 0, 8);
                     byte[] passFactor = SCrypt.generate(password.getBytes("UTF-8"), ownerSalt, 16384, 8, 8, 32);
-                    ECPoint uncompressed = EC_PARAMS.getG().multiply(new BigInteger(1, passFactor));
-                    byte[] passPoint = uncompressed.getEncoded(true);
+                    byte[] passPoint = generatePublicKey(new BigInteger(1, passFactor), true);
                     byte[] addressHashAndOwnerSalt = new byte[12];
                     System.arraycopy(encryptedPrivateKeyBytes, 3, addressHashAndOwnerSalt, 0, 12);
                     byte[] derived = SCrypt.generate(passPoint, addressHashAndOwnerSalt, 1024, 1, 1, 64);
@@ -1381,7 +1262,9 @@ public final class BTCUtils {
                     System.arraycopy(decryptedHalf1, 0, seedB, 0, 16);
                     System.arraycopy(decryptedHalf2, 8, seedB, 16, 8);
                     byte[] factorB = doubleSha256(seedB);
-                    BigInteger privateKey = new BigInteger(1, passFactor).multiply(new BigInteger(1, factorB)).remainder(EC_PARAMS.getN());
+                    int[] secret = Secp256k1Scalar.fromBytesReduced(passFactor);
+                    Secp256k1Scalar.mul(secret, secret, Secp256k1Scalar.fromBytesReduced(factorB));
+                    BigInteger privateKey = new BigInteger(1, Secp256k1Scalar.getBytes(secret));
                     PrivateKeyInfo privateKeyInfo = new Bip38PrivateKeyInfo(encryptedPrivateKey, privateKey, password, compressed);
                     KeyPair keyPair = new KeyPair(privateKeyInfo, publicKeyRepresentation);
                     if (keyPair.address == null) {
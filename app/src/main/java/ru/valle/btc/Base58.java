@@ -0,0 +1,270 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.util.Arrays;
+
+/**
+ * Base58 codec which works on 32 bit limbs instead of BigInteger.
+ * Encoding divides the number by 58^5 per pass, decoding multiplies it by 58^5 per five digits,
+ * so a 25 byte address takes seven passes over at most seven limbs.
+ */
+final class Base58 {
+    static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
+    private static final int CHUNK_DIGITS = 5;
+    private static final long CHUNK = 58L * 58 * 58 * 58 * 58;//fits in 30 bits
+    private static final byte INVALID = -1;
+    private static final byte SPACE = -2;
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, INVALID);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+        }
+        for (char c : new char[]{' ', '\t', '\n', '\u000b', '\f', '\r'}) {
+            VALUES[c] = SPACE;
+        }
+    }
+
+    private Base58() {
+    }
+
+    private static final ThreadLocal<int[]> LIMBS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[16];
+        }
+    };
+
+    static String encode(byte[] input, int offset, int length) {
+        char[] out = new char[maxEncodedLength(length)];
+        return new String(out, 0, encode(input, offset, length, out, 0));
+    }
+
+    /**
+     * @return number of characters which is enough to encode the given number of bytes
+     */
+    static int maxEncodedLength(int length) {
+        //log(256)/log(58) is below 1.38, and the last chunk may add up to four zero digits
+        return length * 138 / 100 + CHUNK_DIGITS;
+    }
+
+    /**
+     * Encodes without allocating for inputs up to 64 bytes.
+     *
+     * @param out buffer with at least {@link #maxEncodedLength(int)} characters available from the offset
+     * @return number of characters written
+     */
+    static int encode(byte[] input, int offset, int length, char[] out, int outOffset) {
+        int zeros = 0;
+        while (zeros < length && input[offset + zeros] == 0) {
+            zeros++;
+        }
+        int size = length - zeros;
+        //big-endian limbs, the first one holds the remainder of the bytes
+        int limbsCount = (size + 3) / 4;
+        int[] limbs = LIMBS.get();
+        if (limbs.length < limbsCount) {
+            limbs = new int[limbsCount];
+        }
+        int pos = offset + zeros;
+        int firstLimbBytes = size - (limbsCount - 1) * 4;
+        for (int i = 0; i < limbsCount; i++) {
+            int limb = 0;
+            for (int j = i == 0 ? firstLimbBytes : 4; j > 0; j--) {
+                limb = (limb << 8) | (input[pos++] & 0xff);
+            }
+            limbs[i] = limb;
+        }
+        //digits are written from the end of the available space, and moved to the offset in the end
+        int end = outOffset + maxEncodedLength(length);
+        int outPos = end;
+        int start = 0;
+        while (start < limbsCount) {
+            long remainder = 0;
+            for (int i = start; i < limbsCount; i++) {
+                long current = (remainder << 32) | (limbs[i] & 0xffffffffL);
+                limbs[i] = (int) (current / CHUNK);
+                remainder = current % CHUNK;
+            }
+            while (start < limbsCount && limbs[start] == 0) {
+                start++;
+            }
+            int digits = (int) remainder;
+            for (int i = 0; i < CHUNK_DIGITS; i++) {
+                out[--outPos] = ALPHABET[digits % 58];
+                digits /= 58;
+            }
+        }
+        while (outPos < end && out[outPos] == ALPHABET[0]) {
+            outPos++;
+        }
+        for (int i = 0; i < zeros; i++) {
+            out[--outPos] = ALPHABET[0];
+        }
+        System.arraycopy(out, outPos, out, outOffset, end - outPos);
+        return end - outPos;
+    }
+
+    /**
+     * Writes checksums of records of the same length which follow each other in the array,
+     * then encodes each of them followed by the separator.
+     *
+     * @param records records with 4 bytes for the checksum in the end of each
+     * @param out     buffer with at least {@link #maxEncodedLength(int)} + 1 characters available for each record
+     * @return position after the last separator
+     */
+    static int encodeChecked(byte[] records, int recordLength, int count, char separator, char[] out, int outOffset) {
+        Digests.writeChecksums(records, recordLength, count);
+        int pos = outOffset;
+        for (int i = 0; i < count; i++) {
+            pos += encode(records, i * recordLength, recordLength, out, pos);
+            out[pos++] = separator;
+        }
+        return pos;
+    }
+
+    /**
+     * @param input trimmed string, whitespace is tolerated only after the last digit
+     * @return decoded bytes or null if the string has characters outside of the alphabet
+     */
+    static byte[] decode(String input) {
+        int length = input.length();
+        int zeros = 0;
+        while (zeros < length && input.charAt(zeros) == ALPHABET[0]) {
+            zeros++;
+        }
+        //log(58)/log(256) is below 0.74
+        int[] limbs = new int[((length - zeros) * 733 / 1000 + 1) / 4 + 2];//little-endian
+        int used = 0;
+        int p = zeros;
+        long chunk = 0;
+        long multiplier = 1;
+        while (p < length) {
+            int c = input.charAt(p);
+            int value = c < VALUES.length ? VALUES[c] : INVALID;
+            if (value < 0) {
+                break;
+            }
+            chunk = chunk * 58 + value;
+            multiplier *= 58;
+            if (multiplier == CHUNK) {
+                used = multiplyAdd(limbs, used, multiplier, chunk);
+                chunk = 0;
+                multiplier = 1;
+            }
+            p++;
+        }
+        if (multiplier != 1) {
+            used = multiplyAdd(limbs, used, multiplier, chunk);
+        }
+        while (p < length) {
+            int c = input.charAt(p++);
+            if (c >= VALUES.length || VALUES[c] != SPACE) {
+                return null;
+            }
+        }
+        int significantBytes = used * 4;
+        if (used > 0) {
+            significantBytes -= Integer.numberOfLeadingZeros(limbs[used - 1]) / 8;
+        }
+        byte[] result = new byte[zeros + significantBytes];
+        for (int i = 0, pos = result.length - 1; i < significantBytes; i++, pos--) {
+            result[pos] = (byte) (limbs[i >>> 2] >>> ((i & 3) << 3));
+        }
+        return result;
+    }
+
+    /**
+     * Decodes Base58Check string and verifies its checksum.
+     *
+     * @param input string, surrounding whitespace is ignored
+     * @return the decoded bytes or null if the string is null, isn't Base58, has no payload or its checksum doesn't match
+     */
+    static Checked decodeChecked(String input) {
+        if (input == null) {
+            return null;
+        }
+        byte[] bytes = decode(input.trim());
+        if (bytes == null || bytes.length < 2 + Digests.CHECKSUM_LENGTH || !Digests.checksumMatches(bytes)) {
+            return null;
+        }
+        return new Checked(bytes);
+    }
+
+    /**
+     * Verified Base58Check data: the version byte followed by the payload and the checksum, all in one buffer.
+     */
+    static final class Checked {
+        static final int PAYLOAD_OFFSET = 1;
+        /**
+         * Decoded bytes including the checksum, never modified
+         */
+        final byte[] bytes;
+        final int payloadLength;
+
+        private Checked(byte[] bytes) {
+            this.bytes = bytes;
+            payloadLength = bytes.length - PAYLOAD_OFFSET - Digests.CHECKSUM_LENGTH;
+        }
+
+        int version() {
+            return bytes[0] & 0xff;
+        }
+
+        /**
+         * @param index index in the payload
+         */
+        byte payloadByte(int index) {
+            return bytes[PAYLOAD_OFFSET + index];
+        }
+
+        byte[] copyPayload(int from, int length) {
+            if (from < 0 || length < 0 || from + length > payloadLength) {
+                throw new IndexOutOfBoundsException("Payload has " + payloadLength + " bytes");
+            }
+            return Arrays.copyOfRange(bytes, PAYLOAD_OFFSET + from, PAYLOAD_OFFSET + from + length);
+        }
+    }
+
+    /**
+     * limbs = limbs * multiplier + addend
+     *
+     * @return number of used limbs after the operation
+     */
+    private static int multiplyAdd(int[] limbs, int used, long multiplier, long addend) {
+        long carry = addend;
+        for (int i = 0; i < used; i++) {
+            long current = (limbs[i] & 0xffffffffL) * multiplier + carry;
+            limbs[i] = (int) current;
+            carry = current >>> 32;
+        }
+        if (carry != 0) {
+            limbs[used++] = (int) carry;
+        }
+        return used;
+    }
+}
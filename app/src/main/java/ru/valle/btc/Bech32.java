@@ -25,54 +25,162 @@ package ru.valle.btc;
 
 import android.support.annotation.NonNull;
 
-import java.io.ByteArrayOutputStream;
-import java.util.Locale;
+import java.util.Arrays;
 
+/**
+ * BIP173 codec. The checksum is computed incrementally while characters are read or written,
+ * with the human-readable part lowercased and expanded on the fly, and the generator applied by table lookup.
+ */
 final class Bech32 {
-    private static final String charset = "qpzry9x8gf2tvdw0s3jn54khce6mua7l";
-    private static final int[] generator = {0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3};
+    private static final int MAX_LENGTH = 90;
+    private static final int CHECKSUM_LENGTH = 6;
+    private static final char[] CHARSET = "qpzry9x8gf2tvdw0s3jn54khce6mua7l".toCharArray();
+    private static final char[] CHARSET_UPPER = "QPZRY9X8GF2TVDW0S3JN54KHCE6MUA7L".toCharArray();
+    private static final int[] GENERATOR = {0x3b6a57b2, 0x26508e6d, 0x1ea119fa, 0x3d4233dd, 0x2a1462b3};
+    /**
+     * XOR of the generator values selected by each combination of the top 5 bits of the checksum
+     */
+    private static final int[] GENERATOR_TABLE = new int[32];
+    /**
+     * Value of a data character of either case, or -1
+     */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int top = 0; top < GENERATOR_TABLE.length; top++) {
+            int value = 0;
+            for (int j = 0; j < GENERATOR.length; j++) {
+                if (((top >> j) & 1) == 1) {
+                    value ^= GENERATOR[j];
+                }
+            }
+            GENERATOR_TABLE[top] = value;
+        }
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < CHARSET.length; i++) {
+            VALUES[CHARSET[i]] = (byte) i;
+            VALUES[CHARSET_UPPER[i]] = (byte) i;
+        }
+    }
 
     static String encodeSegwitAddress(String hrp, int version, byte[] program) throws BitcoinException {
-        if (version < 0 || version > 16) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid witness version: " + version);
+        SegwitEncoder encoder = new SegwitEncoder(hrp, version);
+        char[] out = new char[encoder.maxEncodedLength(program.length)];
+        return new String(out, 0, encoder.encode(program, 0, program.length, out, 0));
+    }
+
+    /**
+     * Encoder of segwit addresses with one human-readable part and witness version into character buffers.
+     * The human-readable part is validated and folded into the checksum state once, so encoding an address allocates nothing.
+     */
+    static final class SegwitEncoder {
+        private final int version;
+        private final char[] prefix;
+        private final int prefixChecksum;
+        private final char[] alphabet;
+
+        SegwitEncoder(String hrp, int version) throws BitcoinException {
+            if (version < 0 || version > 16) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid witness version: " + version);
+            }
+            boolean upper = checkHrp(hrp);
+            this.version = version;
+            alphabet = upper ? CHARSET_UPPER : CHARSET;
+            prefix = new char[hrp.length() + 2];
+            hrp.getChars(0, hrp.length(), prefix, 0);
+            prefix[hrp.length()] = '1';
+            prefix[hrp.length() + 1] = alphabet[version];
+            prefixChecksum = polymodStep(hrpChecksum(hrp, hrp.length()), version);
         }
-        if (program.length < 2 || program.length > 40) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid program length: " + program.length);
+
+        /**
+         * @return number of characters which is enough for an address with the given program length
+         */
+        int maxEncodedLength(int programLength) {
+            return prefix.length + (programLength * 8 + 4) / 5 + CHECKSUM_LENGTH;
         }
-        if (version == 0 && program.length != 20 && program.length != 32) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid program length for witness version 0 (per BIP141): " + program.length);
+
+        /**
+         * @param out buffer with at least {@link #maxEncodedLength(int)} characters available from the offset
+         * @return number of characters written
+         */
+        int encode(byte[] program, int offset, int length, char[] out, int outOffset) throws BitcoinException {
+            if (length < 2 || length > 40 || maxEncodedLength(length) > MAX_LENGTH) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid program length: " + length);
+            }
+            if (version == 0 && length != 20 && length != 32) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid program length for witness version 0 (per BIP141): " + length);
+            }
+            System.arraycopy(prefix, 0, out, outOffset, prefix.length);
+            int pos = outOffset + prefix.length;
+            int chk = prefixChecksum;
+            int acc = 0;
+            int bits = 0;
+            for (int i = offset; i < offset + length; i++) {
+                acc = (acc << 8) | (program[i] & 0xff);
+                bits += 8;
+                while (bits >= 5) {
+                    bits -= 5;
+                    int value = (acc >>> bits) & 31;
+                    chk = polymodStep(chk, value);
+                    out[pos++] = alphabet[value];
+                }
+            }
+            if (bits > 0) {
+                int value = (acc << (5 - bits)) & 31;
+                chk = polymodStep(chk, value);
+                out[pos++] = alphabet[value];
+            }
+            return writeChecksum(chk, alphabet, out, pos) - outOffset;
         }
-        byte[] data = convertBits(program, 8, 5, true);
-        byte[] versionPlusData = new byte[1 + data.length];
-        versionPlusData[0] = (byte) version;
-        System.arraycopy(data, 0, versionPlusData, 1, data.length);
-        return encode(hrp, versionPlusData);
     }
 
     @NonNull
     static Transaction.Script.WitnessProgram decodeSegwitAddress(String hrp, String address) throws BitcoinException {
-        DecodeResult decoded = decode(address);
-        String dechrp = decoded.dechrp;
-        byte[] data = decoded.data;
-        if (!dechrp.equals(hrp)) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid human-readable part: " + hrp + " != " + dechrp);
+        int separator = validate(address);
+        boolean hrpMatches = separator == hrp.length();
+        for (int i = 0; hrpMatches && i < separator; i++) {
+            hrpMatches = toLowerCase(address.charAt(i)) == hrp.charAt(i);
+        }
+        if (!hrpMatches) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid human-readable part: " + hrp + " != " + address.substring(0, separator));
         }
-        if (data.length == 0) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid decode data length: " + data.length);
+        int dataStart = separator + 1;
+        int dataEnd = address.length() - CHECKSUM_LENGTH;
+        if (dataStart == dataEnd) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid decode data length: 0");
         }
-        if ((data[0] & 0xff) > 16) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid witness version: " + (data[0] & 0xff));
+        int version = VALUES[address.charAt(dataStart)];
+        if (version > 16) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid witness version: " + version);
         }
-        byte[] dataWithNoVersion = new byte[data.length - 1];
-        System.arraycopy(data, 1, dataWithNoVersion, 0, dataWithNoVersion.length);
-        byte[] res = convertBits(dataWithNoVersion, 5, 8, false);
-        if (res.length < 2 || res.length > 40) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid convertbits length: " + res.length);
+        int groups = dataEnd - dataStart - 1;
+        int paddingBits = groups * 5 % 8;
+        if (paddingBits >= 5) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "illegal zero padding");
         }
-        if (data[0] == 0 && res.length != 20 && res.length != 32) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid program length for witness version 0 (per BIP141): " + res.length);
+        byte[] program = new byte[groups * 5 / 8];
+        if (program.length < 2 || program.length > 40) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid convertbits length: " + program.length);
         }
-        return new Transaction.Script.WitnessProgram(data[0], res);
+        if (version == 0 && program.length != 20 && program.length != 32) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid program length for witness version 0 (per BIP141): " + program.length);
+        }
+        int acc = 0;
+        int bits = 0;
+        int pos = 0;
+        for (int p = dataStart + 1; p < dataEnd; p++) {
+            acc = (acc << 5) | VALUES[address.charAt(p)];
+            bits += 5;
+            if (bits >= 8) {
+                bits -= 8;
+                program[pos++] = (byte) (acc >>> bits);
+            }
+        }
+        if ((acc & ((1 << bits) - 1)) != 0) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "non-zero padding");
+        }
+        return new Transaction.Script.WitnessProgram(version, program);
     }
 
     static class DecodeResult {
@@ -86,157 +194,147 @@ final class Bech32 {
     }
 
     static DecodeResult decode(String bechString) throws BitcoinException {
-        if (bechString.length() > 90) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "too long: len=" + bechString.length());
+        int separator = validate(bechString);
+        char[] hrp = new char[separator];
+        for (int i = 0; i < separator; i++) {
+            hrp[i] = toLowerCase(bechString.charAt(i));
         }
-        String lowercased = bechString.toLowerCase(Locale.ENGLISH);
-        String uppercased = bechString.toUpperCase(Locale.ENGLISH);
-        if (lowercased.equals(bechString) && uppercased.equals(bechString)) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "mixed case");
+        byte[] data = new byte[bechString.length() - separator - 1 - CHECKSUM_LENGTH];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = VALUES[bechString.charAt(separator + 1 + i)];
         }
-        bechString = lowercased;
-        int pos = bechString.lastIndexOf('1');
-        if (pos < 1 || pos + 7 > bechString.length()) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "separator '1' at invalid position: pos=" + pos + ", len=" + bechString.length());
+        return new DecodeResult(new String(hrp), data);
+    }
+
+    /**
+     * Checks the length, case, characters and checksum of the string.
+     *
+     * @return position of the separator
+     */
+    private static int validate(String bechString) throws BitcoinException {
+        int length = bechString.length();
+        if (length > MAX_LENGTH) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "too long: len=" + length);
         }
-        String hrp = bechString.substring(0, pos);
-        for (int i = 0; i < hrp.length(); i++) {
-            char c = hrp.charAt(i);
-            if (c < 33 || c > 126) {
-                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid character human-readable part: bechString[" + i + "]=" + c);
+        boolean lower = false;
+        boolean upper = false;
+        int separator = -1;
+        for (int i = 0; i < length; i++) {
+            char c = bechString.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                lower = true;
+            } else if (c >= 'A' && c <= 'Z') {
+                upper = true;
+            } else if (c == '1') {
+                separator = i;
             }
         }
-        byte[] data = new byte[bechString.length() - pos - 1];
-        for (int p = pos + 1, i = 0; p < bechString.length(); p++, i++) {
-            int d = charset.indexOf(bechString.charAt(p));
-            if (d == -1) {
-                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid character data part : bechString[" + p + "]=" + bechString.charAt(p));
+        if (lower && upper) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "mixed case");
+        }
+        if (separator < 1 || separator + CHECKSUM_LENGTH + 1 > length) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "separator '1' at invalid position: pos=" + separator + ", len=" + length);
+        }
+        int chk = hrpChecksum(bechString, separator);
+        for (int p = separator + 1; p < length; p++) {
+            char c = bechString.charAt(p);
+            int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value == -1) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid character data part : bechString[" + p + "]=" + c);
             }
-            data[i] = (byte) d;
+            chk = polymodStep(chk, value);
         }
-        if (!verifyChecksum(hrp, data)) {
+        if (chk != 1) {
             throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid checksum");
         }
-        byte[] outData = new byte[data.length - 6];
-        System.arraycopy(data, 0, outData, 0, outData.length);
-        return new DecodeResult(hrp, outData);
-    }
-
-    private static boolean verifyChecksum(String hrp, byte[] data) {
-        byte[] ehrp = hrpExpand(hrp);
-        byte[] values = new byte[ehrp.length + data.length];
-        System.arraycopy(ehrp, 0, values, 0, ehrp.length);
-        System.arraycopy(data, 0, values, ehrp.length, data.length);
-        return polymod(values) == 1;
+        return separator;
     }
 
     static String encode(String hrp, byte[] data) throws BitcoinException {
-        if ((hrp.length() + data.length + 7) > 90) {
+        if ((hrp.length() + data.length + 7) > MAX_LENGTH) {
             throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "too long: hrp length=" + hrp.length() + ", data length=" + data.length);
         }
+        char[] alphabet = checkHrp(hrp) ? CHARSET_UPPER : CHARSET;
+        char[] out = new char[hrp.length() + 1 + data.length + CHECKSUM_LENGTH];
+        hrp.getChars(0, hrp.length(), out, 0);
+        int pos = hrp.length();
+        out[pos++] = '1';
+        int chk = hrpChecksum(hrp, hrp.length());
+        for (int i = 0; i < data.length; i++) {
+            int value = data[i] & 0xff;
+            if (value >= CHARSET.length) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid data: data[" + i + "]=" + value);
+            }
+            chk = polymodStep(chk, value);
+            out[pos++] = alphabet[value];
+        }
+        writeChecksum(chk, alphabet, out, pos);
+        return new String(out);
+    }
+
+    /**
+     * @return true if the human-readable part is in upper case
+     */
+    private static boolean checkHrp(String hrp) throws BitcoinException {
         if (hrp.length() == 0) {
             throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "no hrp");
         }
+        boolean lower = false;
+        boolean upper = false;
         for (int i = 0; i < hrp.length(); i++) {
             char c = hrp.charAt(i);
             if (c < 33 || c > 126) {
                 throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid character human-readable part: hrp[" + i + "]=" + c);
             }
+            lower |= c >= 'a' && c <= 'z';
+            upper |= c >= 'A' && c <= 'Z';
         }
-        String uppercased = hrp.toUpperCase(Locale.ENGLISH);
-        String lowercased = hrp.toLowerCase(Locale.ENGLISH);
-        if (!uppercased.equals(hrp) && !lowercased.equals(hrp)) {
+        if (lower && upper) {
             throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "mixed case: hrp=" + hrp);
         }
-        boolean lower = lowercased.equals(hrp);
-        hrp = lowercased;
-        byte[] checksum = createChecksum(hrp, data);
-        byte[] combined = new byte[data.length + checksum.length];
-        System.arraycopy(data, 0, combined, 0, data.length);
-        System.arraycopy(checksum, 0, combined, data.length, checksum.length);
-        StringBuilder ret = new StringBuilder();
-        ret.append(hrp);
-        ret.append("1");
-        for (int i = 0; i < combined.length; i++) {
-            int p = combined[i] & 0xff;
-            if (p >= charset.length()) {
-                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid data: data[" + i + "]=" + p);
-            }
-            ret.append(charset.charAt(p));
-        }
-        if (lower) {
-            return ret.toString();
-        }
-        return ret.toString().toUpperCase(Locale.ENGLISH);
+        return upper;
     }
 
-    private static byte[] createChecksum(String hrp, byte[] data) {
-        byte[] ehrp = hrpExpand(hrp);
-        byte[] values = new byte[ehrp.length + data.length + 6];
-        System.arraycopy(ehrp, 0, values, 0, ehrp.length);
-        System.arraycopy(data, 0, values, ehrp.length, data.length);
-        int mod = polymod(values) ^ 1;
-        byte[] ret = new byte[6];
-        for (int p = 0; p < ret.length; p++) {
-            ret[p] = (byte) ((mod >>> (5 * (5 - p))) & 31);
-        }
-        return ret;
-    }
-
-    private static int polymod(byte[] values) {
+    /**
+     * @return checksum state after the expanded lowercase human-readable part, the first length characters of the string
+     */
+    private static int hrpChecksum(String s, int length) throws BitcoinException {
         int chk = 1;
-        for (byte value : values) {
-            int v = value & 0xff;
-            int top = chk >>> 25;
-            chk = (chk & 0x1ffffff) << 5 ^ v;
-            for (int j = 0; j < 5; j++) {
-                if (((top >> j) & 1) == 1) {
-                    chk ^= generator[j];
-                }
+        for (int i = 0; i < length; i++) {
+            char c = toLowerCase(s.charAt(i));
+            if (c < 33 || c > 126) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid character human-readable part: bechString[" + i + "]=" + c);
             }
+            chk = polymodStep(chk, c >> 5);
+        }
+        chk = polymodStep(chk, 0);
+        for (int i = 0; i < length; i++) {
+            chk = polymodStep(chk, toLowerCase(s.charAt(i)) & 31);
         }
         return chk;
     }
 
-    private static byte[] hrpExpand(String hrp) {
-        byte[] ret = new byte[hrp.length() * 2 + 1];
-        for (int i = 0; i < hrp.length(); i++) {
-            char c = hrp.charAt(i);
-            ret[i] = (byte) (c >> 5);
+    /**
+     * Finishes the checksum and writes its 6 characters.
+     *
+     * @return position after the checksum
+     */
+    private static int writeChecksum(int chk, char[] alphabet, char[] out, int pos) {
+        for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+            chk = polymodStep(chk, 0);
         }
-        for (int i = 0; i < hrp.length(); i++) {
-            char c = hrp.charAt(i);
-            ret[i + hrp.length() + 1] = (byte) (c & 31);
+        chk ^= 1;
+        for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+            out[pos++] = alphabet[(chk >>> (5 * (5 - i))) & 31];
         }
-        return ret;
+        return pos;
     }
 
-    private static byte[] convertBits(byte[] data, int frombits, int tobits, boolean pad) throws BitcoinException {
-        int acc = 0;
-        int bits = 0;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int maxv = (1 << tobits) - 1;
-        for (int i = 0; i < data.length; i++) {
-            int value = data[i] & 0xff;
-            if ((value >>> frombits) != 0) {
-                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "invalid data range: data[" + i + "]=" + value + " (frombits=" + frombits + ")");
-            }
-            acc = (acc << frombits) | value;
-            bits += frombits;
-            while (bits >= tobits) {
-                bits -= tobits;
-                baos.write((acc >>> bits) & maxv);
-            }
-        }
-        if (pad) {
-            if (bits > 0) {
-                baos.write((acc << (tobits - bits)) & maxv);
-            }
-        } else if (bits >= frombits) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "illegal zero padding");
-        } else if (((acc << (tobits - bits)) & maxv) != 0) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "non-zero padding");
-        }
-        return baos.toByteArray();
+    private static int polymodStep(int chk, int value) {
+        return ((chk & 0x1ffffff) << 5 ^ value) ^ GENERATOR_TABLE[chk >>> 25];
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
     }
 }
@@ -0,0 +1,203 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+
+/**
+ * Reader of little-endian bitcoin data from a byte buffer by absolute positions.
+ * Unlike {@link BitcoinInputStream} it isn't synchronized, reads multi-byte integers at once,
+ * and can skip over data leaving it in the buffer, so the caller may copy it later or never.
+ */
+final class BitcoinCursor {
+    private final ByteBuffer buffer;
+    /**
+     * Backing array of heap buffers, to copy data without going through the buffer byte by byte
+     */
+    private final byte[] array;
+    private final int arrayOffset;
+    private final int limit;
+    /**
+     * Reject varints which could be encoded in fewer bytes
+     */
+    private final boolean canonical;
+    private int position;
+
+    /**
+     * Reads from the position to the limit of the buffer, whose own position isn't changed.
+     */
+    BitcoinCursor(ByteBuffer buffer) {
+        this(buffer, false);
+    }
+
+    BitcoinCursor(ByteBuffer buffer, boolean canonical) {
+        this.canonical = canonical;
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        position = buffer.position();
+        limit = buffer.limit();
+        array = buffer.hasArray() ? buffer.array() : null;
+        arrayOffset = array == null ? 0 : buffer.arrayOffset();
+    }
+
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int position() {
+        return position;
+    }
+
+    int remaining() {
+        return limit - position;
+    }
+
+    /**
+     * @return byte at the given distance from the position, which isn't changed, or -1 past the end of data
+     */
+    int peekByte(int distance) {
+        return distance < remaining() ? buffer.get(position + distance) & 0xff : -1;
+    }
+
+    int readByte() throws BitcoinException {
+        require(1);
+        return buffer.get(position++) & 0xff;
+    }
+
+    int readInt16() throws BitcoinException {
+        require(2);
+        int value = buffer.getShort(position) & 0xffff;
+        position += 2;
+        return value;
+    }
+
+    int readInt32() throws BitcoinException {
+        require(4);
+        int value = buffer.getInt(position);
+        position += 4;
+        return value;
+    }
+
+    long readInt64() throws BitcoinException {
+        require(8);
+        long value = buffer.getLong(position);
+        position += 8;
+        return value;
+    }
+
+    long readVarInt() throws BitcoinException {
+        int start = position;
+        int first = readByte();
+        long value;
+        long min;
+        if (first < 0xfd) {
+            return first;
+        } else if (first == 0xfd) {
+            value = readInt16();
+            min = 0xfd;
+        } else if (first == 0xfe) {
+            value = readInt32() & 0xffffffffL;
+            min = 0x10000;
+        } else {
+            value = readInt64();
+            min = 0x100000000L;
+        }
+        if (canonical && value >= 0 && value < min) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Non-canonical varint at " + start);
+        }
+        return value;
+    }
+
+    /**
+     * Reads a count or a length, which can't exceed the remaining data when each item takes at least minItemSize bytes.
+     */
+    int readLength(int minItemSize) throws BitcoinException {
+        long length = readVarInt();
+        if (length < 0 || length > remaining() / Math.max(1, minItemSize)) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Length " + length + " at " + position + " exceeds the data");
+        }
+        return (int) length;
+    }
+
+    /**
+     * @return position of the skipped data
+     */
+    int skip(int length) throws BitcoinException {
+        require(length);
+        int start = position;
+        position += length;
+        return start;
+    }
+
+    byte[] copy(int offset, int length) {
+        byte[] out = new byte[length];
+        if (array != null) {
+            System.arraycopy(array, arrayOffset + offset, out, 0, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out[i] = buffer.get(offset + i);
+            }
+        }
+        return out;
+    }
+
+    byte[] copyReversed(int offset, int length) {
+        byte[] out = copy(offset, length);
+        return BTCUtils.reverseInPlace(out);
+    }
+
+    void update(MessageDigest digest, int offset, int length) {
+        if (array != null) {
+            digest.update(array, arrayOffset + offset, length);
+        } else {
+            ByteBuffer slice = buffer.duplicate();
+            //through Buffer, as the covariant ByteBuffer overrides don't exist on older platforms
+            Buffer bounds = slice;
+            bounds.limit(offset + length);
+            bounds.position(offset);
+            digest.update(slice);
+        }
+    }
+
+    /**
+     * @return true if the data at the offset starts with the given bytes
+     */
+    boolean equals(int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void require(int length) throws BitcoinException {
+        if (length < 0 || length > limit - position) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Unexpected end of data at " + position);
+        }
+    }
+}
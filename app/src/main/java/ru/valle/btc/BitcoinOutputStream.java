@@ -48,10 +48,10 @@ public final class BitcoinOutputStream extends ByteArrayOutputStream {
     public void writeVarInt(long value) {
         if (value < 0xfd) {
             write((int) (value & 0xff));
-        } else if (value < 0xffff) {
+        } else if (value <= 0xffff) {
             write(0xfd);
             writeInt16((int) value);
-        } else if (value < 0xffffffffL) {
+        } else if (value <= 0xffffffffL) {
             write(0xfe);
             writeInt32((int) value);
         } else {
@@ -0,0 +1,162 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Destination of serialized bitcoin data with the same little-endian writers as {@link BitcoinOutputStream}.
+ * Serializing into {@link #digest(MessageDigest)} hashes the data as it's produced, without building the byte array.
+ */
+abstract class BitcoinSink {
+    private final byte[] buffer = new byte[8];
+
+    abstract void write(byte[] bytes, int offset, int length);
+
+    final void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    final void write(int value) {
+        buffer[0] = (byte) value;
+        write(buffer, 0, 1);
+    }
+
+    /**
+     * Writes 32 bytes of a hash in the reverse order, as hashes are kept in the big-endian form but serialized as little-endian numbers.
+     */
+    final void writeReversed(byte[] hash) {
+        for (int i = 0; i < hash.length; i += buffer.length) {
+            int count = Math.min(buffer.length, hash.length - i);
+            for (int j = 0; j < count; j++) {
+                buffer[j] = hash[hash.length - 1 - i - j];
+            }
+            write(buffer, 0, count);
+        }
+    }
+
+    final void writeInt16(int value) {
+        buffer[0] = (byte) value;
+        buffer[1] = (byte) (value >> 8);
+        write(buffer, 0, 2);
+    }
+
+    final void writeInt32(int value) {
+        buffer[0] = (byte) value;
+        buffer[1] = (byte) (value >> 8);
+        buffer[2] = (byte) (value >> 16);
+        buffer[3] = (byte) (value >>> 24);
+        write(buffer, 0, 4);
+    }
+
+    final void writeInt64(long value) {
+        for (int i = 0; i < 8; i++) {
+            buffer[i] = (byte) (value >>> (i << 3));
+        }
+        write(buffer, 0, 8);
+    }
+
+    /**
+     * The same encoding as {@link BitcoinOutputStream#writeVarInt(long)}.
+     */
+    final void writeVarInt(long value) {
+        if (value < 0xfd) {
+            write((int) (value & 0xff));
+        } else if (value <= 0xffff) {
+            write(0xfd);
+            writeInt16((int) value);
+        } else if (value <= 0xffffffffL) {
+            write(0xfe);
+            writeInt32((int) value);
+        } else {
+            write(0xff);
+            writeInt64(value);
+        }
+    }
+
+    /**
+     * @return number of bytes {@link #writeVarInt(long)} writes for the value
+     */
+    static int varIntSize(long value) {
+        if (value < 0xfd) {
+            return 1;
+        } else if (value <= 0xffff) {
+            return 3;
+        } else if (value <= 0xffffffffL) {
+            return 5;
+        } else {
+            return 9;
+        }
+    }
+
+    /**
+     * Writes into the array from the offset on, which must have room for all the data.
+     */
+    static BitcoinSink of(final byte[] out, final int offset) {
+        return new BitcoinSink() {
+            private int position = offset;
+
+            @Override
+            void write(byte[] bytes, int offset, int length) {
+                System.arraycopy(bytes, offset, out, position, length);
+                position += length;
+            }
+        };
+    }
+
+    /**
+     * Writes at the position of the buffer and advances it.
+     *
+     * @throws java.nio.BufferOverflowException if there is no room for the data
+     */
+    static BitcoinSink of(final ByteBuffer buffer) {
+        return new BitcoinSink() {
+            @Override
+            void write(byte[] bytes, int offset, int length) {
+                buffer.put(bytes, offset, length);
+            }
+        };
+    }
+
+    static BitcoinSink of(final ByteArrayOutputStream stream) {
+        return new BitcoinSink() {
+            @Override
+            void write(byte[] bytes, int offset, int length) {
+                stream.write(bytes, offset, length);
+            }
+        };
+    }
+
+    static BitcoinSink digest(final MessageDigest digest) {
+        return new BitcoinSink() {
+            @Override
+            void write(byte[] bytes, int offset, int length) {
+                digest.update(bytes, offset, length);
+            }
+        };
+    }
+}
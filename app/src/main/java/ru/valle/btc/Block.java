@@ -0,0 +1,326 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Block: 80 bytes header followed by transactions.
+ * Transactions are split sequentially, as each one starts where the previous ends,
+ * then they are decoded and hashed in chunks, and the merkle root is built level by level in chunks.
+ * Chunks run on the executor given by the caller and on the calling thread, which takes the chunks no other thread took.
+ */
+public final class Block {
+    public static final int HEADER_SIZE = 80;
+    /**
+     * Transactions decoded and hashed in one chunk
+     */
+    private static final int TRANSACTIONS_PER_CHUNK = 16;
+    /**
+     * Pairs of merkle tree nodes hashed in one chunk
+     */
+    private static final int NODES_PER_CHUNK = 256;
+
+    public final int version;
+    /**
+     * In the usual (reversed) byte order
+     */
+    public final byte[] previousBlockHash;
+    /**
+     * As stated in the header, in the usual (reversed) byte order
+     */
+    public final byte[] merkleRoot;
+    public final int time;
+    public final int bits;
+    public final int nonce;
+    public final Transaction[] transactions;
+    public final Timings timings;
+    private final byte[] header;
+    /**
+     * Txids in the internal byte order, 32 bytes each
+     */
+    private final byte[] txids;
+    private final byte[] computedMerkleRoot;
+    private final boolean mutated;
+
+    private Block(byte[] header, Transaction[] transactions, byte[] txids, byte[] computedMerkleRoot, boolean mutated, Timings timings) {
+        this.header = header;
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        version = buffer.getInt(0);
+        previousBlockHash = BTCUtils.reverseInPlace(Arrays.copyOfRange(header, 4, 36));
+        merkleRoot = BTCUtils.reverseInPlace(Arrays.copyOfRange(header, 36, 68));
+        time = buffer.getInt(68);
+        bits = buffer.getInt(72);
+        nonce = buffer.getInt(76);
+        this.transactions = transactions;
+        this.txids = txids;
+        this.computedMerkleRoot = computedMerkleRoot;
+        this.mutated = mutated;
+        this.timings = timings;
+    }
+
+    /**
+     * Decodes the block on the calling thread.
+     */
+    public static Block decode(byte[] rawBytes) throws BitcoinException {
+        if (rawBytes == null) {
+            throw new BitcoinException(BitcoinException.ERR_NO_INPUT, "empty input");
+        }
+        return decode(ByteBuffer.wrap(rawBytes), null);
+    }
+
+    /**
+     * Decodes the block from the position to the limit of the buffer, whose own position isn't changed.
+     *
+     * @param executor executor to decode and hash transactions in parallel, or null to do everything on the calling thread
+     */
+    public static Block decode(ByteBuffer buffer, Executor executor) throws BitcoinException {
+        long start = System.nanoTime();
+        BitcoinCursor cursor = new BitcoinCursor(buffer);
+        byte[] header = cursor.copy(cursor.skip(HEADER_SIZE), HEADER_SIZE);
+        int count = cursor.readLength(1);
+        if (count == 0) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Block has no transactions");
+        }
+        ByteBuffer data = cursor.buffer().duplicate();
+        TransactionView[] views = new TransactionView[count];
+        for (int i = 0; i < count; i++) {
+            ((Buffer) data).position(cursor.position());
+            views[i] = TransactionView.parse(data);
+            cursor.skip(views[i].end - views[i].start);
+        }
+        if (cursor.remaining() != 0) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, cursor.remaining() + " bytes after the last transaction");
+        }
+        long parsed = System.nanoTime();
+        Transaction[] transactions = new Transaction[count];
+        byte[] txids = new byte[count * Digests.SHA256_LENGTH];
+        inChunks(executor, count, TRANSACTIONS_PER_CHUNK, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                views[i].hash(txids, i * Digests.SHA256_LENGTH);
+                transactions[i] = views[i].toTransaction();
+            }
+        });
+        long hashed = System.nanoTime();
+        AtomicBoolean mutated = new AtomicBoolean();
+        byte[] root = merkleRoot(txids, count, executor, mutated);
+        long end = System.nanoTime();
+        return new Block(header, transactions, txids, root, mutated.get(), new Timings(parsed - start, hashed - parsed, end - hashed));
+    }
+
+    /**
+     * @return block hash in the usual (reversed) byte order
+     */
+    public byte[] hash() {
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.doubleSha256(header, 0, HEADER_SIZE, hash, 0);
+        return BTCUtils.reverseInPlace(hash);
+    }
+
+    public byte[] getHeader() {
+        return header.clone();
+    }
+
+    /**
+     * @return txid of the transaction in the usual (reversed) byte order, hashed from the bytes of the block
+     */
+    public byte[] getTxid(int index) {
+        return BTCUtils.reverseInPlace(Arrays.copyOfRange(txids, index * Digests.SHA256_LENGTH, (index + 1) * Digests.SHA256_LENGTH));
+    }
+
+    /**
+     * @return merkle root built from the transactions, in the usual (reversed) byte order
+     */
+    public byte[] getComputedMerkleRoot() {
+        return BTCUtils.reverseInPlace(computedMerkleRoot.clone());
+    }
+
+    /**
+     * A node without a pair is hashed with itself, so repeating the last transactions of a block keeps its merkle root
+     * (CVE-2012-2459). Such a block is invalid, but another block with the same hash may be valid.
+     *
+     * @return true if two sibling nodes of the tree are equal
+     */
+    public boolean isMutated() {
+        return mutated;
+    }
+
+    /**
+     * @return false if the merkle root doesn't match the header or the block is {@link #isMutated() mutated}
+     */
+    public boolean isMerkleRootValid() {
+        return !mutated && MessageDigest.isEqual(computedMerkleRoot, Arrays.copyOfRange(header, 36, 68));
+    }
+
+    /**
+     * Builds the tree the way bitcoin core does: a node without a pair is hashed with itself.
+     *
+     * @param hashes  hashes of the lowest level in the internal byte order
+     * @param mutated set if two sibling nodes on any level are equal
+     */
+    static byte[] merkleRoot(byte[] hashes, int count, Executor executor, AtomicBoolean mutated) {
+        byte[] level = hashes;
+        while (count > 1) {
+            int parentsCount = (count + 1) / 2;
+            byte[] parents = new byte[parentsCount * Digests.SHA256_LENGTH];
+            byte[] children = level;
+            int childrenCount = count;
+            inChunks(executor, parentsCount, NODES_PER_CHUNK, (from, to) -> {
+                if (hashPairs(children, childrenCount, parents, from, to)) {
+                    mutated.set(true);
+                }
+            });
+            level = parents;
+            count = parentsCount;
+        }
+        return Arrays.copyOf(level, Digests.SHA256_LENGTH);
+    }
+
+    /**
+     * @return true if a node has a pair equal to it
+     */
+    private static boolean hashPairs(byte[] level, int count, byte[] parents, int from, int to) {
+        MessageDigest sha256 = Digests.sha256();
+        boolean mutated = false;
+        for (int i = from; i < to; i++) {
+            int left = 2 * i;
+            int right = Math.min(left + 1, count - 1);
+            if (right != left && equalHashes(level, left, right)) {
+                mutated = true;
+            }
+            sha256.update(level, left * Digests.SHA256_LENGTH, Digests.SHA256_LENGTH);
+            sha256.update(level, right * Digests.SHA256_LENGTH, Digests.SHA256_LENGTH);
+            Digests.finishDoubleSha256(sha256, parents, i * Digests.SHA256_LENGTH);
+        }
+        return mutated;
+    }
+
+    private static boolean equalHashes(byte[] level, int first, int second) {
+        int firstOffset = first * Digests.SHA256_LENGTH;
+        int secondOffset = second * Digests.SHA256_LENGTH;
+        for (int i = 0; i < Digests.SHA256_LENGTH; i++) {
+            if (level[firstOffset + i] != level[secondOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Time spent on each stage of decoding
+     */
+    public static final class Timings {
+        /**
+         * Splitting the block into transactions
+         */
+        public final long parseNanos;
+        /**
+         * Decoding and hashing transactions
+         */
+        public final long transactionsNanos;
+        public final long merkleRootNanos;
+
+        Timings(long parseNanos, long transactionsNanos, long merkleRootNanos) {
+            this.parseNanos = parseNanos;
+            this.transactionsNanos = transactionsNanos;
+            this.merkleRootNanos = merkleRootNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "parse " + parseNanos / 1000 + "us, transactions " + transactionsNanos / 1000 + "us, merkle root " + merkleRootNanos / 1000 + "us";
+        }
+    }
+
+    private interface Chunk {
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the chunks of [0, count) on the executor and on the calling thread, and returns when all of them are done.
+     * Each worker takes chunks until none are left, so at most one worker per processor is submitted.
+     * The calling thread takes chunks too, so it never waits for a chunk which no thread started,
+     * even if the executor is busy, rejects the workers or is the one the caller runs on.
+     */
+    private static void inChunks(Executor executor, int count, int chunkSize, final Chunk chunk) {
+        final int chunksCount = (count + chunkSize - 1) / chunkSize;
+        if (executor == null || chunksCount <= 1) {
+            chunk.run(0, count);
+            return;
+        }
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(chunksCount);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int index;
+            while ((index = nextChunk.getAndIncrement()) < chunksCount) {
+                try {
+                    chunk.run(index * chunkSize, Math.min(count, (index + 1) * chunkSize));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(chunksCount - 1, Runtime.getRuntime().availableProcessors());
+        try {
+            for (int i = 0; i < helpers; i++) {
+                executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            //the calling thread takes the chunks nobody else took, and still waits for the ones which were taken
+        }
+        worker.run();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+    }
+}
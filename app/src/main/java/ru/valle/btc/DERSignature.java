@@ -0,0 +1,291 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+package ru.valle.btc;
+
+import java.util.Arrays;
+
+/**
+ * Encoder and parser of ECDSA signatures in the DER form used by bitcoin: 0x30 [total-length] 0x02 [R-length] [R] 0x02 [S-length] [S].
+ * Works on plain byte arrays, never builds ASN.1 objects and reports malformed input by return value instead of exceptions.
+ */
+final class DERSignature {
+    /**
+     * Two 33 byte integers (a leading zero is needed when the highest bit is set) and three 2 byte headers.
+     */
+    static final int MAX_LENGTH = 72;
+
+    private static final ThreadLocal<byte[]> ENCODE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[MAX_LENGTH];
+        }
+    };
+
+    private DERSignature() {
+    }
+
+    /**
+     * @param r scalar, not zero
+     * @param s scalar, not zero
+     */
+    static byte[] encode(int[] r, int[] s) {
+        byte[] buffer = ENCODE_BUFFER.get();
+        return Arrays.copyOf(buffer, encode(r, s, buffer, 0));
+    }
+
+    /**
+     * Writes the signature into the buffer, which must have at least {@link #MAX_LENGTH} bytes available from the offset.
+     *
+     * @return number of bytes written
+     */
+    static int encode(int[] r, int[] s, byte[] out, int offset) {
+        if (Secp256k1Scalar.isZero(r) || Secp256k1Scalar.isZero(s)) {
+            throw new IllegalArgumentException("r and s must be positive");
+        }
+        int pos = offset;
+        out[pos++] = 0x30;
+        pos++;
+        pos = writeInteger(r, out, pos);
+        pos = writeInteger(s, out, pos);
+        out[offset + 1] = (byte) (pos - offset - 2);
+        return pos - offset;
+    }
+
+    /**
+     * Writes the shortest big-endian form of a positive integer, with a zero byte in front if the highest bit is set.
+     */
+    private static int writeInteger(int[] scalar, byte[] out, int pos) {
+        out[pos++] = 0x02;
+        int lengthPos = pos++;
+        int top = 31;
+        while (top > 0 && byteAt(scalar, top) == 0) {
+            top--;
+        }
+        if (byteAt(scalar, top) < 0) {
+            out[pos++] = 0;
+        }
+        for (int i = top; i >= 0; i--) {
+            out[pos++] = byteAt(scalar, i);
+        }
+        out[lengthPos] = (byte) (pos - lengthPos - 1);
+        return pos;
+    }
+
+    /**
+     * @param index index of the byte, counting from the least significant one
+     */
+    private static byte byteAt(int[] scalar, int index) {
+        return (byte) (scalar[index >>> 2] >>> ((index & 3) << 3));
+    }
+
+    /**
+     * @param strict accept only the BIP66 form, otherwise parse the way bitcoin core does for signatures
+     *               which predate BIP66: BER length forms, excessive padding and trailing garbage are tolerated
+     * @return r and s as scalars which are not checked against the order, or null if the signature can't be parsed
+     * or a value doesn't fit into 256 bits
+     */
+    static int[][] parse(byte[] signature, int length, boolean strict) {
+        if (strict) {
+            if (!isValidEncoding(signature, length)) {
+                return null;
+            }
+            int lenR = signature[3] & 0xff;
+            int lenS = signature[5 + lenR] & 0xff;
+            return toScalars(signature, 4, lenR, 6 + lenR, lenS);
+        }
+        //port of lax_der_parsing.c from libsecp256k1
+        int pos = 0;
+        if (pos == length || signature[pos] != 0x30) {
+            return null;
+        }
+        pos++;
+        if (pos == length) {
+            return null;
+        }
+        int lenByte = signature[pos++] & 0xff;
+        if ((lenByte & 0x80) != 0) {
+            lenByte -= 0x80;
+            if (lenByte > length - pos) {
+                return null;
+            }
+            pos += lenByte;
+        }
+        long rBounds = readLaxInteger(signature, pos, length);
+        if (rBounds < 0) {
+            return null;
+        }
+        int rPos = (int) (rBounds >>> 32);
+        int rLen = (int) rBounds;
+        pos = rPos + rLen;
+        long sBounds = readLaxInteger(signature, pos, length);
+        if (sBounds < 0) {
+            return null;
+        }
+        int sPos = (int) (sBounds >>> 32);
+        int sLen = (int) sBounds;
+        return toScalars(signature, rPos, rLen, sPos, sLen);
+    }
+
+    /**
+     * @return position of the integer value in the upper half and its length in the lower half, or -1
+     */
+    private static long readLaxInteger(byte[] signature, int pos, int length) {
+        if (pos == length || signature[pos] != 0x02) {
+            return -1;
+        }
+        pos++;
+        if (pos == length) {
+            return -1;
+        }
+        int lenByte = signature[pos++] & 0xff;
+        int len;
+        if ((lenByte & 0x80) != 0) {
+            lenByte -= 0x80;
+            if (lenByte > length - pos) {
+                return -1;
+            }
+            while (lenByte > 0 && signature[pos] == 0) {
+                pos++;
+                lenByte--;
+            }
+            if (lenByte >= 4) {
+                return -1;
+            }
+            len = 0;
+            while (lenByte > 0) {
+                len = (len << 8) + (signature[pos++] & 0xff);
+                lenByte--;
+            }
+        } else {
+            len = lenByte;
+        }
+        if (len > length - pos) {
+            return -1;
+        }
+        return ((long) pos << 32) | len;
+    }
+
+    private static int[][] toScalars(byte[] signature, int rPos, int rLen, int sPos, int sLen) {
+        while (rLen > 0 && signature[rPos] == 0) {
+            rPos++;
+            rLen--;
+        }
+        while (sLen > 0 && signature[sPos] == 0) {
+            sPos++;
+            sLen--;
+        }
+        if (rLen > 32 || sLen > 32) {
+            return null;
+        }
+        return new int[][]{Secp256k1Scalar.fromBytes(signature, rPos, rLen), Secp256k1Scalar.fromBytes(signature, sPos, sLen)};
+    }
+
+    /**
+     * Strict DER check of BIP66.
+     *
+     * @param length length of the signature in the array, any bytes after it (e.g. sighash type) are not checked
+     */
+    static boolean isValidEncoding(byte[] sig, int length) {
+        // Format: 0x30 [total-length] 0x02 [R-length] [R] 0x02 [S-length] [S]
+        // * total-length: 1-byte length descriptor of everything that follows.
+        // * R-length: 1-byte length descriptor of the R value that follows.
+        // * R: arbitrary-length big-endian encoded R value. It must use the shortest
+        //   possible encoding for a positive integers (which means no null bytes at
+        //   the start, except a single one when the next byte has its highest bit set).
+        // * S-length: 1-byte length descriptor of the S value that follows.
+        // * S: arbitrary-length big-endian encoded S value. The same rules apply.
+
+        // Minimum and maximum size constraints.
+        if (length < 8 || length > MAX_LENGTH) {
+            return false;
+        }
+
+        // A signature is of type 0x30 (compound).
+        if (sig[0] != 0x30) {
+            return false;
+        }
+
+        // Make sure the length covers the entire signature.
+        if (sig[1] != length - 2) {
+            return false;
+        }
+
+        // Extract the length of the R element.
+        int lenR = sig[3] & 0xff;
+
+        // Make sure the length of the S element is still inside the signature.
+        if (5 + lenR >= length) {
+            return false;
+        }
+
+        // Extract the length of the S element.
+        int lenS = sig[5 + lenR] & 0xff;
+
+        // Verify that the length of the signature matches the sum of the length
+        // of the elements.
+        if (lenR + lenS + 6 != length) {
+            return false;
+        }
+
+        // Check whether the R element is an integer.
+        if (sig[2] != 0x02) {
+            return false;
+        }
+
+        // Zero-length integers are not allowed for R.
+        if (lenR == 0) {
+            return false;
+        }
+
+        // Negative numbers are not allowed for R.
+        if ((sig[4] & 0x80) != 0) {
+            return false;
+        }
+
+        // Null bytes at the start of R are not allowed, unless R would
+        // otherwise be interpreted as a negative number.
+        if (lenR > 1 && (sig[4] == 0x00) && (sig[5] & 0x80) == 0) {
+            return false;
+        }
+
+        // Check whether the S element is an integer.
+        if (sig[lenR + 4] != 0x02) {
+            return false;
+        }
+
+        // Zero-length integers are not allowed for S.
+        if (lenS == 0) {
+            return false;
+        }
+
+        // Negative numbers are not allowed for S.
+        if ((sig[lenR + 6] & 0x80) != 0) {
+            return false;
+        }
+
+        // Null bytes at the start of S are not allowed, unless S would otherwise be
+        // interpreted as a negative number.
+        return !(lenS > 1 && (sig[lenR + 6] == 0x00) && (sig[lenR + 7] & 0x80) == 0);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import org.spongycastle.crypto.digests.RIPEMD160Digest;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 and RIPEMD-160 on slices of arrays, writing into caller's buffers.
+ * Every thread keeps its own digest instances, so hashing does no provider lookup and allocates nothing.
+ * <p>
+ * The digests are shared by all methods of one thread: a digest taken from {@link #sha256()} must be finished
+ * before any other method of this class is called.
+ */
+final class Digests {
+    static final int SHA256_LENGTH = 32;
+    static final int RIPEMD160_LENGTH = 20;
+    static final int CHECKSUM_LENGTH = 4;
+
+    private static final ThreadLocal<Digests> INSTANCES = new ThreadLocal<Digests>() {
+        @Override
+        protected Digests initialValue() {
+            return new Digests();
+        }
+    };
+
+    private final MessageDigest sha256;
+    private final RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+    private final byte[] buffer = new byte[SHA256_LENGTH];
+
+    private Digests() {
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return SHA-256 digest of this thread, reset, for data which comes in several parts
+     */
+    static MessageDigest sha256() {
+        MessageDigest sha256 = INSTANCES.get().sha256;
+        sha256.reset();
+        return sha256;
+    }
+
+    static void sha256(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest sha256 = sha256();
+        sha256.update(input, offset, length);
+        finish(sha256, out, outOffset);
+    }
+
+    static void doubleSha256(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest sha256 = sha256();
+        sha256.update(input, offset, length);
+        finishDoubleSha256(sha256, out, outOffset);
+    }
+
+    /**
+     * SHA-256 of many short messages: message i is taken from data at offsets[i] with lengths[i],
+     * its digest is written at out[outOffset + 32 * i].
+     */
+    static void sha256(byte[] data, int[] offsets, int[] lengths, int count, byte[] out, int outOffset) {
+        MessageDigest sha256 = INSTANCES.get().sha256;
+        sha256.reset();
+        for (int i = 0; i < count; i++) {
+            sha256.update(data, offsets[i], lengths[i]);
+            finish(sha256, out, outOffset + i * SHA256_LENGTH);
+        }
+    }
+
+    /**
+     * The same as {@link #sha256(byte[], int[], int[], int, byte[], int)} with every digest hashed once more.
+     */
+    static void doubleSha256(byte[] data, int[] offsets, int[] lengths, int count, byte[] out, int outOffset) {
+        MessageDigest sha256 = INSTANCES.get().sha256;
+        sha256.reset();
+        for (int i = 0; i < count; i++) {
+            int resultOffset = outOffset + i * SHA256_LENGTH;
+            sha256.update(data, offsets[i], lengths[i]);
+            finish(sha256, out, resultOffset);
+            sha256.update(out, resultOffset, SHA256_LENGTH);
+            finish(sha256, out, resultOffset);
+        }
+    }
+
+    /**
+     * Hashes the digest of the data given to {@link #sha256()} once more, the result is written to out.
+     */
+    static void finishDoubleSha256(MessageDigest sha256, byte[] out, int outOffset) {
+        byte[] buffer = INSTANCES.get().buffer;
+        finish(sha256, buffer, 0);
+        sha256.update(buffer, 0, SHA256_LENGTH);
+        finish(sha256, out, outOffset);
+    }
+
+    /**
+     * RIPEMD-160(SHA-256(input)), the hash of public keys and scripts in addresses.
+     * Inputs of public key size go through {@link Hash160}.
+     */
+    static void sha256ripemd160(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        if (length <= Hash160.MAX_LENGTH) {
+            Hash160.hash(input, offset, length, out, outOffset);
+            return;
+        }
+        Digests digests = INSTANCES.get();
+        digests.sha256.reset();
+        digests.sha256.update(input, offset, length);
+        finish(digests.sha256, digests.buffer, 0);
+        digests.ripemd160.update(digests.buffer, 0, SHA256_LENGTH);
+        digests.ripemd160.doFinal(out, outOffset);
+    }
+
+    /**
+     * Writes the first 4 bytes of the double SHA-256 of everything before the last 4 bytes into these last bytes.
+     */
+    static void writeChecksum(byte[] bytesWithChecksum) {
+        byte[] buffer = INSTANCES.get().buffer;
+        doubleSha256(bytesWithChecksum, 0, bytesWithChecksum.length - CHECKSUM_LENGTH, buffer, 0);
+        System.arraycopy(buffer, 0, bytesWithChecksum, bytesWithChecksum.length - CHECKSUM_LENGTH, CHECKSUM_LENGTH);
+    }
+
+    /**
+     * {@link #writeChecksum(byte[])} of records of the same length which follow each other in the array,
+     * hashed together in one batch.
+     */
+    static void writeChecksums(byte[] records, int recordLength, int count) {
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = i * recordLength;
+            lengths[i] = recordLength - CHECKSUM_LENGTH;
+        }
+        byte[] hashes = new byte[count * SHA256_LENGTH];
+        doubleSha256(records, offsets, lengths, count, hashes, 0);
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(hashes, i * SHA256_LENGTH, records, offsets[i] + lengths[i], CHECKSUM_LENGTH);
+        }
+    }
+
+    /**
+     * @return true if the last 4 bytes are the checksum of the rest
+     */
+    static boolean checksumMatches(byte[] bytesWithChecksum) {
+        byte[] buffer = INSTANCES.get().buffer;
+        int length = bytesWithChecksum.length - CHECKSUM_LENGTH;
+        doubleSha256(bytesWithChecksum, 0, length, buffer, 0);
+        int difference = 0;
+        for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+            difference |= buffer[i] ^ bytesWithChecksum[length + i];
+        }
+        return difference == 0;
+    }
+
+    private static void finish(MessageDigest sha256, byte[] out, int outOffset) {
+        try {
+            sha256.digest(out, outOffset, SHA256_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("Output buffer is too small", e);
+        }
+    }
+}
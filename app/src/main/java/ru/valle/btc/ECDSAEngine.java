@@ -0,0 +1,139 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+package ru.valle.btc;
+
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.prng.DigestRandomGenerator;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+
+import java.math.BigInteger;
+
+/**
+ * ECDSA over secp256k1 which is safe to call from any number of threads at once.
+ * There is no shared monitor: the curve arithmetic keeps no state and every thread keeps its own nonce generator.
+ */
+final class ECDSAEngine {
+    private static final ThreadLocal<HMacDSAKCalculator> DETERMINISTIC_NONCES = new ThreadLocal<HMacDSAKCalculator>() {
+        @Override
+        protected HMacDSAKCalculator initialValue() {
+            return new HMacDSAKCalculator(new SHA256Digest());
+        }
+    };
+
+    /**
+     * Generators of random nonces, each seeded from {@link BTCUtils#SECURE_RANDOM} once,
+     * so signing threads don't queue on its lock for every signature.
+     */
+    private static final ThreadLocal<DigestRandomGenerator> RANDOM_NONCES = new ThreadLocal<DigestRandomGenerator>() {
+        @Override
+        protected DigestRandomGenerator initialValue() {
+            DigestRandomGenerator generator = new DigestRandomGenerator(new SHA256Digest());
+            byte[] seed = new byte[64];
+            BTCUtils.SECURE_RANDOM.nextBytes(seed);
+            generator.addSeedMaterial(seed);
+            generator.addSeedMaterial(Thread.currentThread().getId());
+            generator.addSeedMaterial(System.nanoTime());
+            return generator;
+        }
+    };
+
+    private ECDSAEngine() {
+    }
+
+    /**
+     * @param deterministicNonce derive the nonce from the key and the hash as described in RFC 6979 (HMAC-SHA256)
+     *                           instead of drawing it from the generator of the thread
+     * @return r and s of the signature as scalars, s is already normalized to the lower half of the order (BIP62)
+     */
+    static int[][] sign(BigInteger privateKey, byte[] hash, boolean deterministicNonce) {
+        int[] d = Secp256k1Scalar.fromBigInteger(privateKey);
+        if (Secp256k1Scalar.isZero(d)) {
+            throw new IllegalArgumentException("Private key is out of range");
+        }
+        int[] e = hashToScalar(hash);
+        HMacDSAKCalculator deterministicNonces = null;
+        if (deterministicNonce) {
+            deterministicNonces = DETERMINISTIC_NONCES.get();
+            deterministicNonces.init(BTCUtils.LARGEST_PRIVATE_KEY, new BigInteger(1, Secp256k1Scalar.getBytes(d)), hash);
+        }
+        byte[] xBytes = new byte[32];
+        int[] kInverse = new int[Secp256k1Scalar.LIMBS];
+        while (true) {
+            int[] k = deterministicNonces == null ? randomNonce() : Secp256k1Scalar.fromBigInteger(deterministicNonces.nextK());
+            Secp256k1.Point point = Secp256k1.multiplyGenerator(k);
+            if (point == null) {
+                continue;
+            }
+            Secp256k1Field.getBytes(point.x, xBytes, 0);
+            int[] r = Secp256k1Scalar.fromBytesReduced(xBytes);
+            if (Secp256k1Scalar.isZero(r)) {
+                continue;
+            }
+            int[] s = new int[Secp256k1Scalar.LIMBS];
+            Secp256k1Scalar.mul(s, r, d);
+            Secp256k1Scalar.add(s, s, e);
+            Secp256k1Scalar.inv(kInverse, k);
+            Secp256k1Scalar.mul(s, s, kInverse);
+            if (Secp256k1Scalar.isZero(s)) {
+                continue;
+            }
+            if (Secp256k1Scalar.isHigh(s)) {
+                //https://github.com/bitcoin/bips/blob/master/bip-0062.mediawiki#low-s-values-in-signatures
+                Secp256k1Scalar.negate(s, s);
+            }
+            return new int[][]{r, s};
+        }
+    }
+
+    static boolean verify(Secp256k1.Point publicKey, int[] r, int[] s, byte[] hash) {
+        if (!Secp256k1Scalar.isValid(r) || !Secp256k1Scalar.isValid(s)) {
+            return false;
+        }
+        int[] w = new int[Secp256k1Scalar.LIMBS];
+        Secp256k1Scalar.inv(w, s);
+        int[] u1 = hashToScalar(hash);
+        Secp256k1Scalar.mul(u1, u1, w);
+        int[] u2 = new int[Secp256k1Scalar.LIMBS];
+        Secp256k1Scalar.mul(u2, r, w);
+        return Secp256k1.verifyCombination(u1, publicKey, u2, r);
+    }
+
+    private static int[] randomNonce() {
+        DigestRandomGenerator generator = RANDOM_NONCES.get();
+        byte[] bytes = new byte[32];
+        int[] k;
+        do {
+            generator.nextBytes(bytes);
+            k = Secp256k1Scalar.fromBytes(bytes, 0, bytes.length);
+        } while (!Secp256k1Scalar.isValid(k));
+        return k;
+    }
+
+    /**
+     * Leftmost 256 bits of the hash modulo n, as in SEC 1.
+     */
+    private static int[] hashToScalar(byte[] hash) {
+        return hash.length >= 32 ? Secp256k1Scalar.fromBytesReduced(hash) : Secp256k1Scalar.fromBytes(hash, 0, hash.length);
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+/**
+ * RIPEMD-160(SHA-256(data)) for short inputs such as public keys (33 and 65 bytes), witness programs (22 bytes) and hashes,
+ * without digest objects: the message is padded on the fly into one or two SHA-256 blocks, and the SHA-256 state
+ * goes straight into the single RIPEMD-160 block as little-endian words.
+ * State lives in local variables and a per-thread schedule array, so hashing allocates nothing.
+ */
+final class Hash160 {
+    /**
+     * Longest input which fits into two SHA-256 blocks with the padding.
+     */
+    static final int MAX_LENGTH = 119;
+
+    private static final int[] SHA256_K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2};
+    private static final int[] SHA256_H = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19};
+
+    private static final int[] RIPEMD160_R = {
+            0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+            7, 4, 13, 1, 10, 6, 15, 3, 12, 0, 9, 5, 2, 14, 11, 8,
+            3, 10, 14, 4, 9, 15, 8, 1, 2, 7, 0, 6, 13, 11, 5, 12,
+            1, 9, 11, 10, 0, 8, 12, 4, 13, 3, 7, 15, 14, 5, 6, 2,
+            4, 0, 5, 9, 7, 12, 2, 10, 14, 1, 3, 8, 11, 6, 15, 13};
+    private static final int[] RIPEMD160_R_PARALLEL = {
+            5, 14, 7, 0, 9, 2, 11, 4, 13, 6, 15, 8, 1, 10, 3, 12,
+            6, 11, 3, 7, 0, 13, 5, 10, 14, 15, 8, 12, 4, 9, 1, 2,
+            15, 5, 1, 3, 7, 14, 6, 9, 11, 8, 12, 2, 10, 0, 4, 13,
+            8, 6, 4, 1, 3, 11, 15, 0, 5, 12, 2, 13, 9, 7, 10, 14,
+            12, 15, 10, 4, 1, 5, 8, 7, 6, 2, 13, 14, 0, 3, 9, 11};
+    private static final int[] RIPEMD160_S = {
+            11, 14, 15, 12, 5, 8, 7, 9, 11, 13, 14, 15, 6, 7, 9, 8,
+            7, 6, 8, 13, 11, 9, 7, 15, 7, 12, 15, 9, 11, 7, 13, 12,
+            11, 13, 6, 7, 14, 9, 13, 15, 14, 8, 13, 6, 5, 12, 7, 5,
+            11, 12, 14, 15, 14, 15, 9, 8, 9, 14, 5, 6, 8, 6, 5, 12,
+            9, 15, 5, 11, 6, 8, 13, 12, 5, 12, 13, 14, 11, 8, 5, 6};
+    private static final int[] RIPEMD160_S_PARALLEL = {
+            8, 9, 9, 11, 13, 15, 15, 5, 7, 7, 8, 11, 14, 14, 12, 6,
+            9, 13, 15, 7, 12, 8, 9, 11, 7, 7, 12, 7, 6, 15, 13, 11,
+            9, 7, 15, 11, 8, 6, 6, 14, 12, 13, 5, 14, 13, 13, 7, 5,
+            15, 5, 8, 11, 14, 14, 6, 14, 6, 9, 12, 9, 12, 5, 15, 8,
+            8, 5, 12, 9, 12, 5, 14, 6, 8, 13, 6, 5, 15, 13, 11, 11};
+    private static final int[] RIPEMD160_K = {0x00000000, 0x5a827999, 0x6ed9eba1, 0x8f1bbcdc, 0xa953fd4e};
+    private static final int[] RIPEMD160_K_PARALLEL = {0x50a28be6, 0x5c4dd124, 0x6d703ef3, 0x7a6d76e9, 0x00000000};
+
+    /**
+     * Message schedule of SHA-256 followed by the 8 words of its state.
+     */
+    private static final ThreadLocal<int[]> WORDS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[64 + 8];
+        }
+    };
+
+    private Hash160() {
+    }
+
+    /**
+     * Writes 20 bytes of the hash into out.
+     *
+     * @param length up to {@link #MAX_LENGTH}
+     */
+    static void hash(byte[] input, int offset, int length, byte[] out, int outOffset) {
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Input is too long for hash160 kernel: " + length);
+        }
+        int[] w = WORDS.get();
+        System.arraycopy(SHA256_H, 0, w, 64, 8);
+        int blocks = length <= 55 ? 1 : 2;
+        for (int block = 0; block < blocks; block++) {
+            int blockStart = block << 6;
+            for (int i = 0; i < 16; i++) {
+                w[i] = paddedWord(input, offset, length, blockStart + (i << 2), blocks << 6);
+            }
+            compress(w);
+        }
+        for (int i = 0; i < 8; i++) {
+            //the digest bytes, big-endian in SHA-256, are read as little-endian words by RIPEMD-160
+            w[i] = Integer.reverseBytes(w[64 + i]);
+        }
+        w[8] = 0x80;
+        for (int i = 9; i < 16; i++) {
+            w[i] = 0;
+        }
+        w[14] = 256;
+        ripemd160(w, out, outOffset);
+    }
+
+    /**
+     * Big-endian word at the position of the message padded by SHA-256: the data, 0x80, zeros and the length in bits.
+     */
+    private static int paddedWord(byte[] input, int offset, int length, int position, int paddedLength) {
+        if (position + 4 <= length) {
+            int p = offset + position;
+            return (input[p] << 24) | ((input[p + 1] & 0xff) << 16) | ((input[p + 2] & 0xff) << 8) | (input[p + 3] & 0xff);
+        }
+        if (position == paddedLength - 4) {
+            return length << 3;
+        }
+        int word = 0;
+        for (int i = 0; i < 4; i++) {
+            int b;
+            if (position + i < length) {
+                b = input[offset + position + i] & 0xff;
+            } else if (position + i == length) {
+                b = 0x80;
+            } else {
+                b = 0;
+            }
+            word = (word << 8) | b;
+        }
+        return word;
+    }
+
+    private static void compress(int[] w) {
+        for (int i = 16; i < 64; i++) {
+            int w15 = w[i - 15];
+            int w2 = w[i - 2];
+            int s0 = Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3);
+            int s1 = Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10);
+            w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+        }
+        int a = w[64], b = w[65], c = w[66], d = w[67], e = w[68], f = w[69], g = w[70], h = w[71];
+        for (int i = 0; i < 64; i++) {
+            int s1 = Integer.rotateRight(e, 6) ^ Integer.rotateRight(e, 11) ^ Integer.rotateRight(e, 25);
+            int t1 = h + s1 + ((e & f) ^ (~e & g)) + SHA256_K[i] + w[i];
+            int s0 = Integer.rotateRight(a, 2) ^ Integer.rotateRight(a, 13) ^ Integer.rotateRight(a, 22);
+            int t2 = s0 + ((a & b) ^ (a & c) ^ (b & c));
+            h = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = b;
+            b = a;
+            a = t1 + t2;
+        }
+        w[64] += a;
+        w[65] += b;
+        w[66] += c;
+        w[67] += d;
+        w[68] += e;
+        w[69] += f;
+        w[70] += g;
+        w[71] += h;
+    }
+
+    /**
+     * One block of RIPEMD-160 from the initial state, the block is in the first 16 words.
+     */
+    private static void ripemd160(int[] x, byte[] out, int outOffset) {
+        int a = 0x67452301, b = 0xefcdab89, c = 0x98badcfe, d = 0x10325476, e = 0xc3d2e1f0;
+        int ap = a, bp = b, cp = c, dp = d, ep = e;
+        for (int j = 0; j < 80; j++) {
+            int round = j >> 4;
+            int t = Integer.rotateLeft(a + f(round, b, c, d) + x[RIPEMD160_R[j]] + RIPEMD160_K[round], RIPEMD160_S[j]) + e;
+            a = e;
+            e = d;
+            d = Integer.rotateLeft(c, 10);
+            c = b;
+            b = t;
+            t = Integer.rotateLeft(ap + f(4 - round, bp, cp, dp) + x[RIPEMD160_R_PARALLEL[j]] + RIPEMD160_K_PARALLEL[round],
+                    RIPEMD160_S_PARALLEL[j]) + ep;
+            ap = ep;
+            ep = dp;
+            dp = Integer.rotateLeft(cp, 10);
+            cp = bp;
+            bp = t;
+        }
+        writeLittleEndian(0xefcdab89 + c + dp, out, outOffset);
+        writeLittleEndian(0x98badcfe + d + ep, out, outOffset + 4);
+        writeLittleEndian(0x10325476 + e + ap, out, outOffset + 8);
+        writeLittleEndian(0xc3d2e1f0 + a + bp, out, outOffset + 12);
+        writeLittleEndian(0x67452301 + b + cp, out, outOffset + 16);
+    }
+
+    private static int f(int round, int x, int y, int z) {
+        switch (round) {
+            case 0:
+                return x ^ y ^ z;
+            case 1:
+                return (x & y) | (~x & z);
+            case 2:
+                return (x | ~y) ^ z;
+            case 3:
+                return (x & z) | (y & ~z);
+            default:
+                return x ^ (y | ~z);
+        }
+    }
+
+    private static void writeLittleEndian(int value, byte[] out, int offset) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >> 8);
+        out[offset + 2] = (byte) (value >> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Table-driven hex codec. Decoding skips whitespace in the same pass, so pasted dumps are never copied just to strip it.
+ */
+final class Hex {
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte INVALID = -1;
+    private static final byte WHITESPACE = -2;
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        for (int c = 0; c < VALUES.length; c++) {
+            VALUES[c] = Character.isWhitespace(c) ? WHITESPACE : (byte) Character.digit(c, 16);
+        }
+    }
+
+    private Hex() {
+    }
+
+    static String encode(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        encode(bytes, 0, bytes.length, out, 0);
+        return new String(out);
+    }
+
+    /**
+     * @param out buffer with at least 2 * length characters available from the offset
+     * @return number of characters written
+     */
+    static int encode(byte[] bytes, int offset, int length, char[] out, int outOffset) {
+        for (int i = 0; i < length; i++) {
+            int v = bytes[offset + i] & 0xff;
+            out[outOffset++] = DIGITS[v >>> 4];
+            out[outOffset++] = DIGITS[v & 0x0f];
+        }
+        return length * 2;
+    }
+
+    /**
+     * Decodes characters from start to end, whitespace between digits is skipped.
+     *
+     * @return decoded bytes or null if there are other characters or the number of digits is odd
+     */
+    static byte[] decode(CharSequence s, int start, int end) {
+        byte[] out = new byte[(end - start) / 2];
+        int length = 0;
+        int high = -1;
+        for (int i = start; i < end; i++) {
+            int value = valueOf(s.charAt(i));
+            if (value == WHITESPACE) {
+                continue;
+            }
+            if (value < 0) {
+                return null;
+            }
+            if (high < 0) {
+                high = value;
+            } else {
+                out[length++] = (byte) (high << 4 | value);
+                high = -1;
+            }
+        }
+        if (high >= 0) {
+            return null;
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Decodes everything the reader has, whitespace between digits is skipped.
+     *
+     * @return decoded bytes or null if there are other characters or the number of digits is odd
+     */
+    static byte[] decode(Reader reader) throws IOException {
+        char[] chunk = new char[8192];
+        byte[] out = new byte[chunk.length / 2];
+        int length = 0;
+        int high = -1;
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            if (out.length - length < read / 2 + 1) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, length + read / 2 + 1));
+            }
+            for (int i = 0; i < read; i++) {
+                int value = valueOf(chunk[i]);
+                if (value == WHITESPACE) {
+                    continue;
+                }
+                if (value < 0) {
+                    return null;
+                }
+                if (high < 0) {
+                    high = value;
+                } else {
+                    out[length++] = (byte) (high << 4 | value);
+                    high = -1;
+                }
+            }
+        }
+        if (high >= 0) {
+            return null;
+        }
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    private static int valueOf(char c) {
+        if (c < VALUES.length) {
+            return VALUES[c];
+        }
+        return Character.isWhitespace(c) ? WHITESPACE : INVALID;
+    }
+}
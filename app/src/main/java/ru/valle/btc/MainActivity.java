@@ -543,25 +543,33 @@ public final class MainActivity extends Activity {
                             ArrayList<UnspentOutputInfo> unspentOutputs = new ArrayList<>();
                             //1. decode tx or json
                             String txs = unspentOutputsInfoStr.trim();
-                            byte[] startBytes = txs.length() < 8 ? null : BTCUtils.fromHex(txs.substring(0, 8));
+                            byte[] startBytes = txs.length() < 8 ? null : Hex.decode(txs, 0, 8);
                             if (startBytes != null && startBytes.length == 4) {
-                                String[] txList = txs.split("\\s+");
-                                for (String rawTxStr : txList) {
-                                    rawTxStr = rawTxStr.trim();
-                                    if (rawTxStr.length() > 0) {
-                                        byte[] rawTx = BTCUtils.fromHex(rawTxStr);
+                                //transactions are separated by whitespace, each one is decoded from its slice of the input
+                                int txEnd = 0;
+                                while (txEnd < txs.length()) {
+                                    int txStart = txEnd;
+                                    while (txStart < txs.length() && Character.isWhitespace(txs.charAt(txStart))) {
+                                        txStart++;
+                                    }
+                                    txEnd = txStart;
+                                    while (txEnd < txs.length() && !Character.isWhitespace(txs.charAt(txEnd))) {
+                                        txEnd++;
+                                    }
+                                    if (txEnd > txStart) {
+                                        byte[] rawTx = Hex.decode(txs, txStart, txEnd);
                                         if (rawTx != null && rawTx.length > 0) {
-                                            Transaction baseTx = Transaction.decodeTransaction(rawTx);
-                                            byte[] rawTxReconstructed = baseTx.getBytes();
-                                            if (!Arrays.equals(rawTxReconstructed, rawTx)) {
-                                                throw new IllegalArgumentException("Unable to decode given transaction");
-                                            }
+                                            //only outputs are needed, inputs and witnesses are skipped over
+                                            TransactionView baseTx = TransactionView.parseCanonical(rawTx, true);
                                             jsonInput = false;
-                                            byte[] txHash = baseTx.hash();
-                                            for (int outputIndex = 0; outputIndex < baseTx.outputs.length; outputIndex++) {
-                                                Transaction.Output output = baseTx.outputs[outputIndex];
-                                                if (Arrays.equals(outputScriptWeAreAbleToSpend, output.scriptPubKey.bytes)) {
-                                                    unspentOutputs.add(new UnspentOutputInfo(keyPair, txHash, output.scriptPubKey, output.value, outputIndex));
+                                            byte[] txHash = null;
+                                            for (int outputIndex = 0; outputIndex < baseTx.getOutputsCount(); outputIndex++) {
+                                                if (baseTx.outputScriptEquals(outputIndex, outputScriptWeAreAbleToSpend)) {
+                                                    if (txHash == null) {
+                                                        txHash = baseTx.hash();
+                                                    }
+                                                    unspentOutputs.add(new UnspentOutputInfo(keyPair, txHash,
+                                                            new Transaction.Script(baseTx.getOutputScript(outputIndex)), baseTx.getOutputValue(outputIndex), outputIndex));
                                                 }
                                             }
                                         }
@@ -0,0 +1,75 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+package ru.valle.btc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded LRU cache of decoded and validated public key points, keyed by the encoded public key.
+ * Decoding a compressed key costs a modular square root, so re-verifying many inputs which spend
+ * from the same address decodes the key only once.
+ */
+public final class PublicKeyCache {
+    private final SegmentedLruCache<ByteBuffer, Secp256k1.Point> points;
+
+    /**
+     * @param capacity number of keys to keep, 0 disables the cache
+     */
+    public PublicKeyCache(int capacity) {
+        points = new SegmentedLruCache<>(capacity);
+    }
+
+    /**
+     * @return decoded point, taken from the cache if this key was seen recently
+     * @throws IllegalArgumentException if the key doesn't encode a point on the curve
+     */
+    Secp256k1.Point get(byte[] encodedPublicKey) {
+        if (!points.isEnabled()) {
+            return Secp256k1.Point.decode(encodedPublicKey);
+        }
+        Secp256k1.Point point = points.get(ByteBuffer.wrap(encodedPublicKey));
+        if (point == null) {
+            point = Secp256k1.Point.decode(encodedPublicKey);
+            //the key is copied so callers are free to reuse their arrays
+            points.put(ByteBuffer.wrap(encodedPublicKey.clone()), point);
+        }
+        return point;
+    }
+
+    public long getHitCount() {
+        return points.getHitCount();
+    }
+
+    public long getMissCount() {
+        return points.getMissCount();
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    public void clear() {
+        points.clear();
+    }
+}
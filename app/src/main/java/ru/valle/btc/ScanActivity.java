@@ -123,9 +123,8 @@ public final class ScanActivity extends Activity {
                         boolean validInput = Address.verify(scannedData);
                         if (!validInput) {
                             //then maybe it's a private key?
-                            byte[] decodedEntity = BTCUtils.decodeBase58(scannedData);
-                            validInput = decodedEntity != null && BTCUtils.verifyDoubleSha256Checksum(decodedEntity);
-                            if (!validInput && decodedEntity != null && scannedData.startsWith("S")) {
+                            validInput = Base58.decodeChecked(scannedData) != null;
+                            if (!validInput && scannedData.startsWith("S") && BTCUtils.decodeBase58(scannedData) != null) {
                                 try {
                                     validInput = MessageDigest.getInstance("SHA-256").digest(
                                             (scannedData + '?').getBytes("UTF-8"))[0] == 0;
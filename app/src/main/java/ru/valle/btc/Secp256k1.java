@@ -0,0 +1,656 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import static ru.valle.btc.Secp256k1Field.LIMBS;
+import static ru.valle.btc.Secp256k1Field.add;
+import static ru.valle.btc.Secp256k1Field.isZero;
+import static ru.valle.btc.Secp256k1Field.mul;
+import static ru.valle.btc.Secp256k1Field.mulInt;
+import static ru.valle.btc.Secp256k1Field.sqr;
+import static ru.valle.btc.Secp256k1Field.sub;
+
+/**
+ * Group operations on secp256k1, y^2 = x^3 + 7.
+ * Points are added in Jacobian coordinates (x = X/Z^2, y = Y/Z^3), so the only field inversion of a multiplication
+ * is the one which brings the result back to affine coordinates.
+ */
+final class Secp256k1 {
+    private static final int[] CURVE_B = Secp256k1Field.fromInt(7);
+    static final Point G = new Point(
+            fieldFromHex("79BE667EF9DCBBAC55A06295CE870B07029BFCDB2DCE28D959F2815B16F81798"),
+            fieldFromHex("483ADA7726A3C4655DA4FBFC0E1108A8FD17B448A68554199C47D08FFB10D4B8"));
+    /**
+     * n as a field element and p - n as a scalar, an x coordinate below p - n may be r + n of a signature.
+     */
+    private static final int[] N_AS_FIELD = fieldFromHex("FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFEBAAEDCE6AF48A03BBFD25E8CD0364141");
+    private static final int[] P_MINUS_N = {0x2FC9BAEE, 0x402DA172, 0x50B75FC4, 0x45512319, 0x00000001, 0, 0, 0};
+    private static final int WINDOW_BITS = 4;
+    private static final int WINDOW_SIZE = 1 << WINDOW_BITS;
+    private static final int WINDOWS_COUNT = 256 / WINDOW_BITS;
+    /**
+     * beta * x maps a point to lambda times it.
+     */
+    private static final int[] BETA = fieldFromHex("7AE96A2B657C07106E64479EAC3434E99CF0497512F58995C1396C28719501EE");
+    /**
+     * wNAF window widths of the precomputed generator tables and of the tables built for every point.
+     */
+    private static final int WINDOW_G = 8;
+    private static final int WINDOW_A = 5;
+    /**
+     * Halves of a split scalar are shorter than 2^129, one more position takes the final carry of wNAF.
+     */
+    private static final int GLV_BITS = 130;
+
+    private Secp256k1() {
+    }
+
+    /**
+     * Point in affine coordinates, both of them are normalized. Immutable.
+     */
+    static final class Point {
+        final int[] x, y;
+
+        private Point(int[] x, int[] y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        byte[] getEncoded(boolean compressed) {
+            byte[] encoded;
+            if (compressed) {
+                encoded = new byte[33];
+                encoded[0] = (byte) (Secp256k1Field.isOdd(y) ? 3 : 2);
+            } else {
+                encoded = new byte[65];
+                encoded[0] = 4;
+                Secp256k1Field.getBytes(y, encoded, 33);
+            }
+            Secp256k1Field.getBytes(x, encoded, 1);
+            return encoded;
+        }
+
+        /**
+         * Accepts compressed, uncompressed and hybrid encodings.
+         *
+         * @throws IllegalArgumentException if the bytes don't encode a point on the curve
+         */
+        static Point decode(byte[] encoded) {
+            if (encoded.length == 0) {
+                throw new IllegalArgumentException("Empty public key");
+            }
+            int[] x = new int[LIMBS];
+            int[] y = new int[LIMBS];
+            byte type = encoded[0];
+            switch (type) {
+                case 2:
+                case 3:
+                    if (encoded.length != 33) {
+                        throw new IllegalArgumentException("Incorrect length for compressed encoding");
+                    }
+                    if (!Secp256k1Field.setBytes(x, encoded, 1)) {
+                        throw new IllegalArgumentException("x is not below p");
+                    }
+                    int[] ySquared = new int[LIMBS];
+                    curveRightSide(ySquared, x);
+                    if (!Secp256k1Field.sqrt(y, ySquared)) {
+                        throw new IllegalArgumentException("Invalid point compression");
+                    }
+                    Secp256k1Field.normalize(y);
+                    if (Secp256k1Field.isOdd(y) != (type == 3)) {
+                        Secp256k1Field.negate(y, y);
+                        Secp256k1Field.normalize(y);
+                    }
+                    return new Point(x, y);
+                case 4:
+                case 6:
+                case 7:
+                    if (encoded.length != 65) {
+                        throw new IllegalArgumentException("Incorrect length for uncompressed encoding");
+                    }
+                    if (!Secp256k1Field.setBytes(x, encoded, 1) || !Secp256k1Field.setBytes(y, encoded, 33)) {
+                        throw new IllegalArgumentException("Coordinate is not below p");
+                    }
+                    if (type != 4 && Secp256k1Field.isOdd(y) != (type == 7)) {
+                        throw new IllegalArgumentException("Inconsistent y coordinate in hybrid encoding");
+                    }
+                    int[] rightSide = new int[LIMBS];
+                    curveRightSide(rightSide, x);
+                    int[] leftSide = new int[LIMBS];
+                    sqr(leftSide, y);
+                    if (!Secp256k1Field.equal(leftSide, rightSide)) {
+                        throw new IllegalArgumentException("Invalid point coordinates");
+                    }
+                    return new Point(x, y);
+                default:
+                    throw new IllegalArgumentException("Invalid point encoding 0x" + Integer.toHexString(type & 0xff));
+            }
+        }
+
+        /**
+         * Takes the same steps whatever the scalar is, so k may be secret.
+         *
+         * @return k * this point or null if it's the point at infinity
+         */
+        Point multiply(int[] k) {
+            JacobianPoint result = new JacobianPoint();
+            multiplyLadder(result, this, k);
+            return toAffine(result);
+        }
+    }
+
+    /**
+     * Mutable point in Jacobian coordinates.
+     */
+    private static final class JacobianPoint {
+        final int[] x = new int[LIMBS], y = new int[LIMBS], z = new int[LIMBS];
+        boolean infinity = true;
+
+        void setAffine(int[] ax, int[] ay) {
+            Secp256k1Field.set(x, ax);
+            Secp256k1Field.set(y, ay);
+            for (int i = 0; i < LIMBS; i++) {
+                z[i] = 0;
+            }
+            z[0] = 1;
+            infinity = false;
+        }
+    }
+
+    private static int[] fieldFromHex(String hex) {
+        int[] r = new int[LIMBS];
+        Secp256k1Field.setBytes(r, BTCUtils.fromHex(hex), 0);
+        return r;
+    }
+
+    /**
+     * r = x^3 + 7
+     */
+    private static void curveRightSide(int[] r, int[] x) {
+        int[] t = new int[LIMBS];
+        sqr(t, x);
+        mul(t, t, x);
+        add(r, t, CURVE_B);
+    }
+
+    /**
+     * dbl-2009-l, r may be the same point as a.
+     */
+    private static void twice(JacobianPoint r, JacobianPoint a) {
+        if (a.infinity) {
+            r.infinity = true;
+            return;
+        }
+        int[] aa = new int[LIMBS], b = new int[LIMBS], c = new int[LIMBS], d = new int[LIMBS], e = new int[LIMBS],
+                f = new int[LIMBS], t = new int[LIMBS];
+        sqr(aa, a.x);
+        sqr(b, a.y);
+        sqr(c, b);
+        add(t, a.x, b);
+        sqr(t, t);
+        sub(t, t, aa);
+        sub(t, t, c);
+        add(d, t, t);
+        mulInt(e, aa, 3);
+        sqr(f, e);
+        mul(t, a.y, a.z);
+        add(r.z, t, t);
+        add(t, d, d);
+        sub(r.x, f, t);
+        sub(t, d, r.x);
+        mul(t, e, t);
+        mulInt(c, c, 8);
+        sub(r.y, t, c);
+        r.infinity = false;
+    }
+
+    /**
+     * madd-2007-bl, adds an affine point (x2, y2). r may be the same point as a.
+     */
+    private static void addAffine(JacobianPoint r, JacobianPoint a, int[] x2, int[] y2) {
+        if (a.infinity) {
+            r.setAffine(x2, y2);
+            return;
+        }
+        int[] z1z1 = new int[LIMBS], u2 = new int[LIMBS], s2 = new int[LIMBS], h = new int[LIMBS], rr = new int[LIMBS];
+        sqr(z1z1, a.z);
+        mul(u2, x2, z1z1);
+        mul(s2, y2, a.z);
+        mul(s2, s2, z1z1);
+        sub(h, u2, a.x);
+        sub(rr, s2, a.y);
+        finishAddition(r, a.x, a.y, a.z, h, rr, a);
+    }
+
+    /**
+     * add-2007-bl, r may be the same point as a or b.
+     */
+    private static void addPoints(JacobianPoint r, JacobianPoint a, JacobianPoint b) {
+        if (a.infinity) {
+            copy(r, b);
+            return;
+        }
+        if (b.infinity) {
+            copy(r, a);
+            return;
+        }
+        int[] z1z1 = new int[LIMBS], z2z2 = new int[LIMBS], u1 = new int[LIMBS], u2 = new int[LIMBS], s1 = new int[LIMBS],
+                s2 = new int[LIMBS], h = new int[LIMBS], rr = new int[LIMBS], z = new int[LIMBS];
+        sqr(z1z1, a.z);
+        sqr(z2z2, b.z);
+        mul(u1, a.x, z2z2);
+        mul(u2, b.x, z1z1);
+        mul(s1, a.y, b.z);
+        mul(s1, s1, z2z2);
+        mul(s2, b.y, a.z);
+        mul(s2, s2, z1z1);
+        sub(h, u2, u1);
+        sub(rr, s2, s1);
+        mul(z, a.z, b.z);
+        finishAddition(r, u1, s1, z, h, rr, a);
+    }
+
+    /**
+     * Common tail of both additions: X3 = R^2 - H^3 - 2*U1*H^2, Y3 = R*(U1*H^2 - X3) - S1*H^3, Z3 = Z*H.
+     */
+    private static void finishAddition(JacobianPoint r, int[] u1, int[] s1, int[] z, int[] h, int[] rr, JacobianPoint a) {
+        if (isZero(h)) {
+            if (isZero(rr)) {
+                twice(r, a);
+            } else {
+                r.infinity = true;
+            }
+            return;
+        }
+        int[] hh = new int[LIMBS], hhh = new int[LIMBS], v = new int[LIMBS], t = new int[LIMBS];
+        sqr(hh, h);
+        mul(hhh, h, hh);
+        mul(v, u1, hh);
+        mul(t, s1, hhh);
+        mul(r.z, z, h);
+        sqr(r.x, rr);
+        sub(r.x, r.x, hhh);
+        sub(r.x, r.x, v);
+        sub(r.x, r.x, v);
+        sub(v, v, r.x);
+        mul(v, rr, v);
+        sub(r.y, v, t);
+        r.infinity = false;
+    }
+
+    private static void copy(JacobianPoint r, JacobianPoint a) {
+        if (r != a) {
+            Secp256k1Field.set(r.x, a.x);
+            Secp256k1Field.set(r.y, a.y);
+            Secp256k1Field.set(r.z, a.z);
+            r.infinity = a.infinity;
+        }
+    }
+
+    /**
+     * Swaps the points if the bit is set, without branches on it.
+     */
+    private static void swap(JacobianPoint a, JacobianPoint b, int bit) {
+        int mask = -bit;
+        for (int i = 0; i < LIMBS; i++) {
+            int t = (a.x[i] ^ b.x[i]) & mask;
+            a.x[i] ^= t;
+            b.x[i] ^= t;
+            t = (a.y[i] ^ b.y[i]) & mask;
+            a.y[i] ^= t;
+            b.y[i] ^= t;
+            t = (a.z[i] ^ b.z[i]) & mask;
+            a.z[i] ^= t;
+            b.z[i] ^= t;
+        }
+        int t = ((a.infinity ? 1 : 0) ^ (b.infinity ? 1 : 0)) & bit;
+        a.infinity ^= t != 0;
+        b.infinity ^= t != 0;
+    }
+
+    private static Point toAffine(JacobianPoint p) {
+        return toAffine(new JacobianPoint[]{p})[0];
+    }
+
+    /**
+     * Brings all points to affine coordinates at the cost of one field inversion (Montgomery's trick).
+     *
+     * @return affine points, null in place of the points at infinity
+     */
+    private static Point[] toAffine(JacobianPoint[] points) {
+        int[][] zProductsBefore = new int[points.length][];
+        int[] product = Secp256k1Field.fromInt(1);
+        for (int i = 0; i < points.length; i++) {
+            if (!points[i].infinity) {
+                zProductsBefore[i] = product.clone();
+                mul(product, product, points[i].z);
+            }
+        }
+        int[] inverse = new int[LIMBS];
+        Secp256k1Field.inv(inverse, product);
+        Point[] result = new Point[points.length];
+        int[] zInv = new int[LIMBS], zInv2 = new int[LIMBS];
+        for (int i = points.length - 1; i >= 0; i--) {
+            JacobianPoint p = points[i];
+            if (p.infinity) {
+                continue;
+            }
+            mul(zInv, inverse, zProductsBefore[i]);
+            mul(inverse, inverse, p.z);
+            int[] x = new int[LIMBS];
+            int[] y = new int[LIMBS];
+            sqr(zInv2, zInv);
+            mul(x, p.x, zInv2);
+            mul(zInv2, zInv2, zInv);
+            mul(y, p.y, zInv2);
+            Secp256k1Field.normalize(x);
+            Secp256k1Field.normalize(y);
+            result[i] = new Point(x, y);
+        }
+        return result;
+    }
+
+    private static int digit(int[] k, int window) {
+        return (k[window >>> 3] >>> ((window & 7) << 2)) & (WINDOW_SIZE - 1);
+    }
+
+    /**
+     * Entries j * 16^i * G + C_i for every 4-bit window i and every digit j including zero, so k * G is the sum
+     * of one entry per window: 64 mixed additions and no doublings.
+     * The offsets C_i are the same point U for all windows but the last one, which takes -63 * U, so they cancel out.
+     * U is a point of unknown discrete logarithm, so partial sums are never at infinity nor equal to the next entry
+     * unless with negligible probability, and the additions don't branch on the scalar.
+     * Built on the first use from 1024 Jacobian points normalized together.
+     */
+    private static final class GeneratorTable {
+        static final Point[] TABLE;
+
+        static {
+            JacobianPoint offset = new JacobianPoint();
+            Point u = nothingUpMySleevePoint();
+            offset.setAffine(u.x, u.y);
+            JacobianPoint lastOffset = new JacobianPoint();
+            for (int i = 0; i < WINDOWS_COUNT - 1; i++) {
+                addAffine(lastOffset, lastOffset, u.x, u.y);
+            }
+            Secp256k1Field.negate(lastOffset.y, lastOffset.y);
+
+            JacobianPoint[] points = new JacobianPoint[WINDOWS_COUNT * WINDOW_SIZE];
+            JacobianPoint base = new JacobianPoint();
+            base.setAffine(G.x, G.y);
+            for (int window = 0; window < WINDOWS_COUNT; window++) {
+                int first = window * WINDOW_SIZE;
+                points[first] = new JacobianPoint();
+                copy(points[first], window == WINDOWS_COUNT - 1 ? lastOffset : offset);
+                for (int j = 1; j < WINDOW_SIZE; j++) {
+                    points[first + j] = new JacobianPoint();
+                    addPoints(points[first + j], points[first + j - 1], base);
+                }
+                for (int i = 0; i < WINDOW_BITS; i++) {
+                    twice(base, base);
+                }
+            }
+            TABLE = toAffine(points);
+        }
+
+        /**
+         * The first point whose x is SHA-256 of the label and a counter.
+         */
+        private static Point nothingUpMySleevePoint() {
+            byte[] encoded = new byte[33];
+            encoded[0] = 2;
+            for (int counter = 0; ; counter++) {
+                byte[] label = ("secp256k1 generator table offset " + counter).getBytes();
+                Digests.sha256(label, 0, label.length, encoded, 1);
+                try {
+                    return Point.decode(encoded);
+                } catch (IllegalArgumentException notOnCurve) {
+                    //try the next one
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the same time and reads the same table entries whatever the scalar is: every window adds an entry,
+     * which is picked by a masked scan over all entries of the window.
+     */
+    private static void multiplyGenerator(JacobianPoint r, int[] k) {
+        Point[] table = GeneratorTable.TABLE;
+        int[] x = new int[LIMBS], y = new int[LIMBS];
+        for (int window = 0; window < WINDOWS_COUNT; window++) {
+            select(table, window * WINDOW_SIZE, digit(k, window), x, y);
+            if (window == 0) {
+                r.setAffine(x, y);
+            } else {
+                addAffine(r, r, x, y);
+            }
+        }
+    }
+
+    /**
+     * x, y = table[first + index] without branches or reads which depend on the index.
+     */
+    private static void select(Point[] table, int first, int index, int[] x, int[] y) {
+        for (int i = 0; i < LIMBS; i++) {
+            x[i] = 0;
+            y[i] = 0;
+        }
+        for (int j = 0; j < WINDOW_SIZE; j++) {
+            //-1 if j == index, 0 otherwise
+            int mask = ((j ^ index) - 1) >> 31;
+            Point p = table[first + j];
+            for (int i = 0; i < LIMBS; i++) {
+                x[i] |= p.x[i] & mask;
+                y[i] |= p.y[i] & mask;
+            }
+        }
+    }
+
+    /**
+     * Odd multiples 1, 3, 5 .. (2^(w-1) - 1) of the point, normalized together to be added with mixed additions.
+     */
+    private static Point[] oddMultiples(Point p, int w) {
+        JacobianPoint[] multiples = new JacobianPoint[1 << (w - 2)];
+        multiples[0] = new JacobianPoint();
+        multiples[0].setAffine(p.x, p.y);
+        JacobianPoint twice = new JacobianPoint();
+        twice(twice, multiples[0]);
+        for (int i = 1; i < multiples.length; i++) {
+            multiples[i] = new JacobianPoint();
+            addPoints(multiples[i], multiples[i - 1], twice);
+        }
+        return toAffine(multiples);
+    }
+
+    /**
+     * The same multiples of lambda * p, which differ only by x multiplied by beta.
+     */
+    private static Point[] withEndomorphism(Point[] multiples) {
+        Point[] result = new Point[multiples.length];
+        for (int i = 0; i < multiples.length; i++) {
+            int[] x = new int[LIMBS];
+            mul(x, multiples[i].x, BETA);
+            Secp256k1Field.normalize(x);
+            result[i] = new Point(x, multiples[i].y);
+        }
+        return result;
+    }
+
+    private static final class GeneratorOddMultiples {
+        static final Point[] TABLE = oddMultiples(G, WINDOW_G);
+        static final Point[] LAMBDA_TABLE = withEndomorphism(TABLE);
+    }
+
+    /**
+     * Width-w non-adjacent form of a half of a split scalar, digit i is the multiplier of 2^i.
+     * Digits are odd and below 2^(w-1) in absolute value, with at least w-1 zeros after each of them.
+     * A scalar above n/2 is negated first and the signs of its digits are flipped, so only short values are expanded.
+     */
+    private static int[] wnaf(int[] scalar, int w) {
+        int[] k = scalar;
+        int sign = 1;
+        if (Secp256k1Scalar.isHigh(k)) {
+            k = new int[Secp256k1Scalar.LIMBS];
+            Secp256k1Scalar.negate(k, scalar);
+            sign = -1;
+        }
+        int[] naf = new int[GLV_BITS];
+        int carry = 0;
+        int bit = 0;
+        while (bit < GLV_BITS) {
+            if (bits(k, bit, 1) == carry) {
+                bit++;
+                continue;
+            }
+            int now = Math.min(w, GLV_BITS - bit);
+            int word = bits(k, bit, now) + carry;
+            carry = (word >>> (w - 1)) & 1;
+            word -= carry << w;
+            naf[bit] = sign * word;
+            bit += now;
+        }
+        return naf;
+    }
+
+    /**
+     * @param count up to 31 bits
+     */
+    private static int bits(int[] k, int offset, int count) {
+        int limb = offset >>> 5;
+        int shift = offset & 31;
+        long word = k[limb] & 0xFFFFFFFFL;
+        if (shift + count > 32 && limb + 1 < k.length) {
+            word |= (k[limb + 1] & 0xFFFFFFFFL) << 32;
+        }
+        return (int) (word >>> shift) & ((1 << count) - 1);
+    }
+
+    /**
+     * r = u1 * G + u2 * q in one pass of doublings (Shamir's trick). Both scalars are split by the endomorphism
+     * into 128-bit halves, so four wNAF expansions of half the length share 130 doublings.
+     * The multiples of G come from precomputed tables, the multiples of q are built for this call.
+     * The steps depend on the scalars, so they must be public, as they are in signature verification.
+     */
+    private static void multiplyCombination(JacobianPoint r, int[] u1, Point q, int[] u2) {
+        int[] g1 = new int[Secp256k1Scalar.LIMBS], g2 = new int[Secp256k1Scalar.LIMBS];
+        int[] q1 = new int[Secp256k1Scalar.LIMBS], q2 = new int[Secp256k1Scalar.LIMBS];
+        Secp256k1Scalar.splitLambda(g1, g2, u1);
+        Secp256k1Scalar.splitLambda(q1, q2, u2);
+        Point[] qTable = oddMultiples(q, WINDOW_A);
+        Point[][] tables = {GeneratorOddMultiples.TABLE, GeneratorOddMultiples.LAMBDA_TABLE, qTable, withEndomorphism(qTable)};
+        int[][] nafs = {wnaf(g1, WINDOW_G), wnaf(g2, WINDOW_G), wnaf(q1, WINDOW_A), wnaf(q2, WINDOW_A)};
+        int[] negatedY = new int[LIMBS];
+        r.infinity = true;
+        for (int bit = GLV_BITS - 1; bit >= 0; bit--) {
+            twice(r, r);
+            for (int i = 0; i < nafs.length; i++) {
+                int digit = nafs[i][bit];
+                if (digit > 0) {
+                    Point p = tables[i][(digit - 1) >> 1];
+                    addAffine(r, r, p.x, p.y);
+                } else if (digit < 0) {
+                    Point p = tables[i][(-digit - 1) >> 1];
+                    Secp256k1Field.negate(negatedY, p.y);
+                    addAffine(r, r, p.x, negatedY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Montgomery ladder: r0 = m * q and r1 = (m + 1) * q for the leading bits m of the scalar, each bit takes
+     * one addition and one doubling. The bits are those of k + n or k + 2n, which always have the highest bit at 256,
+     * so every scalar takes 256 steps, and the points are swapped with masks instead of branches on the bits.
+     * r0 and r1 differ by q, so the additions don't hit the doubling case, and they reach infinity only for k = 0 or 1.
+     */
+    private static void multiplyLadder(JacobianPoint r, Point q, int[] k) {
+        int[] bits = Secp256k1Scalar.withFixedLength(k);
+        JacobianPoint r0 = new JacobianPoint();
+        r0.setAffine(q.x, q.y);
+        JacobianPoint r1 = new JacobianPoint();
+        twice(r1, r0);
+        for (int i = 255; i >= 0; i--) {
+            int bit = (bits[i >>> 5] >>> (i & 31)) & 1;
+            swap(r0, r1, bit);
+            addPoints(r1, r0, r1);
+            twice(r0, r0);
+            swap(r0, r1, bit);
+        }
+        copy(r, r0);
+    }
+
+    /**
+     * @param k scalar, reduced modulo n
+     * @return k * G or null if k is zero
+     */
+    static Point multiplyGenerator(int[] k) {
+        JacobianPoint result = new JacobianPoint();
+        multiplyGenerator(result, k);
+        return toAffine(result);
+    }
+
+    /**
+     * k * G for every scalar, all normalized with a single inversion.
+     */
+    static Point[] multiplyGenerator(int[][] scalars) {
+        JacobianPoint[] points = new JacobianPoint[scalars.length];
+        for (int i = 0; i < scalars.length; i++) {
+            points[i] = new JacobianPoint();
+            multiplyGenerator(points[i], scalars[i]);
+        }
+        return toAffine(points);
+    }
+
+    /**
+     * Checks the ECDSA equation without bringing the sum to affine coordinates: x = X/Z^2, so r*Z^2 = X is compared
+     * instead, and also (r + n)*Z^2 = X because x is taken modulo n.
+     *
+     * @param r signature value, 0 &lt; r &lt; n
+     * @return true if x of u1 * G + u2 * q taken modulo n equals r
+     */
+    static boolean verifyCombination(int[] u1, Point q, int[] u2, int[] r) {
+        JacobianPoint sum = new JacobianPoint();
+        multiplyCombination(sum, u1, q, u2);
+        if (sum.infinity) {
+            return false;
+        }
+        int[] rx = new int[LIMBS];
+        Secp256k1Field.setBytes(rx, Secp256k1Scalar.getBytes(r), 0);
+        int[] zz = new int[LIMBS];
+        sqr(zz, sum.z);
+        int[] t = new int[LIMBS];
+        mul(t, rx, zz);
+        if (Secp256k1Field.equal(t, sum.x)) {
+            return true;
+        }
+        if (!Secp256k1Scalar.lessThan(r, P_MINUS_N)) {
+            return false;
+        }
+        add(rx, rx, N_AS_FIELD);
+        mul(t, rx, zz);
+        return Secp256k1Field.equal(t, sum.x);
+    }
+}
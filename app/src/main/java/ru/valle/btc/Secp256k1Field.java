@@ -0,0 +1,431 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+/**
+ * Arithmetic in the field of secp256k1 coordinates, modulo p = 2^256 - 2^32 - 977.
+ * <p>
+ * An element is an int[10] of 26-bit limbs, least significant first, so a product of two limbs and a sum of ten such
+ * products still fit into a long. Every operation leaves its result weakly normalized: each limb is below 2^26,
+ * the top one below 2^22 + 1, and the value is below 2^256 + 2^26 but may be not fully reduced modulo p.
+ * {@link #normalize(int[])} gives the unique representation for encoding and comparison.
+ * Results may share arrays with arguments.
+ */
+final class Secp256k1Field {
+    static final int LIMBS = 10;
+    private static final int M26 = 0x3FFFFFF;
+    private static final int M22 = 0x3FFFFF;
+    /**
+     * Limbs of 2p, used to keep the minuend positive in {@link #sub(int[], int[], int[])}.
+     */
+    private static final int[] TWO_P = {0x3FFFC2F << 1, 0x3FFFFBF << 1, M26 << 1, M26 << 1, M26 << 1, M26 << 1, M26 << 1, M26 << 1, M26 << 1, M22 << 1};
+
+    private Secp256k1Field() {
+    }
+
+    static int[] fromInt(int value) {
+        int[] r = new int[LIMBS];
+        r[0] = value;
+        return r;
+    }
+
+    /**
+     * Reads 32 big-endian bytes.
+     *
+     * @return false if the value is not below p, r is filled anyway
+     */
+    static boolean setBytes(int[] r, byte[] bytes, int offset) {
+        for (int i = 0; i < LIMBS; i++) {
+            r[i] = 0;
+        }
+        for (int i = 0; i < 32; i++) {
+            int bit = i << 3;
+            int b = bytes[offset + 31 - i] & 0xff;
+            int limb = bit / 26;
+            int shift = bit % 26;
+            r[limb] |= (b << shift) & M26;
+            if (shift > 18) {
+                r[limb + 1] |= b >>> (26 - shift);
+            }
+        }
+        //p has all bits set except these of 2^32 + 977
+        return r[9] != M22 || (r[8] & r[7] & r[6] & r[5] & r[4] & r[3] & r[2]) != M26 ||
+                r[1] < 0x3FFFFBF || (r[1] == 0x3FFFFBF && r[0] < 0x3FFFC2F);
+    }
+
+    /**
+     * Writes 32 big-endian bytes, a must be normalized.
+     */
+    static void getBytes(int[] a, byte[] out, int offset) {
+        for (int i = 0; i < 32; i++) {
+            int bit = i << 3;
+            int limb = bit / 26;
+            int shift = bit % 26;
+            int b = a[limb] >>> shift;
+            if (shift > 18) {
+                b |= a[limb + 1] << (26 - shift);
+            }
+            out[offset + 31 - i] = (byte) b;
+        }
+    }
+
+    static void set(int[] r, int[] a) {
+        System.arraycopy(a, 0, r, 0, LIMBS);
+    }
+
+    static void add(int[] r, int[] a, int[] b) {
+        for (int i = 0; i < LIMBS; i++) {
+            r[i] = a[i] + b[i];
+        }
+        normalizeWeak(r);
+    }
+
+    static void sub(int[] r, int[] a, int[] b) {
+        for (int i = 0; i < LIMBS; i++) {
+            r[i] = a[i] + TWO_P[i] - b[i];
+        }
+        normalizeWeak(r);
+    }
+
+    static void negate(int[] r, int[] a) {
+        for (int i = 0; i < LIMBS; i++) {
+            r[i] = TWO_P[i] - a[i];
+        }
+        normalizeWeak(r);
+    }
+
+    /**
+     * @param k small multiplier, up to 32
+     */
+    static void mulInt(int[] r, int[] a, int k) {
+        for (int i = 0; i < LIMBS; i++) {
+            r[i] = a[i] * k;
+        }
+        normalizeWeak(r);
+    }
+
+    static void mul(int[] r, int[] a, int[] b) {
+        long a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3], a4 = a[4], a5 = a[5], a6 = a[6], a7 = a[7], a8 = a[8], a9 = a[9];
+        long b0 = b[0], b1 = b[1], b2 = b[2], b3 = b[3], b4 = b[4], b5 = b[5], b6 = b[6], b7 = b[7], b8 = b[8], b9 = b[9];
+        long c0 = a0 * b0;
+        long c1 = a0 * b1 + a1 * b0;
+        long c2 = a0 * b2 + a1 * b1 + a2 * b0;
+        long c3 = a0 * b3 + a1 * b2 + a2 * b1 + a3 * b0;
+        long c4 = a0 * b4 + a1 * b3 + a2 * b2 + a3 * b1 + a4 * b0;
+        long c5 = a0 * b5 + a1 * b4 + a2 * b3 + a3 * b2 + a4 * b1 + a5 * b0;
+        long c6 = a0 * b6 + a1 * b5 + a2 * b4 + a3 * b3 + a4 * b2 + a5 * b1 + a6 * b0;
+        long c7 = a0 * b7 + a1 * b6 + a2 * b5 + a3 * b4 + a4 * b3 + a5 * b2 + a6 * b1 + a7 * b0;
+        long c8 = a0 * b8 + a1 * b7 + a2 * b6 + a3 * b5 + a4 * b4 + a5 * b3 + a6 * b2 + a7 * b1 + a8 * b0;
+        long c9 = a0 * b9 + a1 * b8 + a2 * b7 + a3 * b6 + a4 * b5 + a5 * b4 + a6 * b3 + a7 * b2 + a8 * b1 + a9 * b0;
+        long c10 = a1 * b9 + a2 * b8 + a3 * b7 + a4 * b6 + a5 * b5 + a6 * b4 + a7 * b3 + a8 * b2 + a9 * b1;
+        long c11 = a2 * b9 + a3 * b8 + a4 * b7 + a5 * b6 + a6 * b5 + a7 * b4 + a8 * b3 + a9 * b2;
+        long c12 = a3 * b9 + a4 * b8 + a5 * b7 + a6 * b6 + a7 * b5 + a8 * b4 + a9 * b3;
+        long c13 = a4 * b9 + a5 * b8 + a6 * b7 + a7 * b6 + a8 * b5 + a9 * b4;
+        long c14 = a5 * b9 + a6 * b8 + a7 * b7 + a8 * b6 + a9 * b5;
+        long c15 = a6 * b9 + a7 * b8 + a8 * b7 + a9 * b6;
+        long c16 = a7 * b9 + a8 * b8 + a9 * b7;
+        long c17 = a8 * b9 + a9 * b8;
+        long c18 = a9 * b9;
+        reduce(r, c0, c1, c2, c3, c4, c5, c6, c7, c8, c9, c10, c11, c12, c13, c14, c15, c16, c17, c18);
+    }
+
+    static void sqr(int[] r, int[] a) {
+        long a0 = a[0], a1 = a[1], a2 = a[2], a3 = a[3], a4 = a[4], a5 = a[5], a6 = a[6], a7 = a[7], a8 = a[8], a9 = a[9];
+        long c0 = a0 * a0;
+        long c1 = (a0 * a1) << 1;
+        long c2 = ((a0 * a2) << 1) + a1 * a1;
+        long c3 = (a0 * a3 + a1 * a2) << 1;
+        long c4 = ((a0 * a4 + a1 * a3) << 1) + a2 * a2;
+        long c5 = (a0 * a5 + a1 * a4 + a2 * a3) << 1;
+        long c6 = ((a0 * a6 + a1 * a5 + a2 * a4) << 1) + a3 * a3;
+        long c7 = (a0 * a7 + a1 * a6 + a2 * a5 + a3 * a4) << 1;
+        long c8 = ((a0 * a8 + a1 * a7 + a2 * a6 + a3 * a5) << 1) + a4 * a4;
+        long c9 = (a0 * a9 + a1 * a8 + a2 * a7 + a3 * a6 + a4 * a5) << 1;
+        long c10 = ((a1 * a9 + a2 * a8 + a3 * a7 + a4 * a6) << 1) + a5 * a5;
+        long c11 = (a2 * a9 + a3 * a8 + a4 * a7 + a5 * a6) << 1;
+        long c12 = ((a3 * a9 + a4 * a8 + a5 * a7) << 1) + a6 * a6;
+        long c13 = (a4 * a9 + a5 * a8 + a6 * a7) << 1;
+        long c14 = ((a5 * a9 + a6 * a8) << 1) + a7 * a7;
+        long c15 = (a6 * a9 + a7 * a8) << 1;
+        long c16 = ((a7 * a9) << 1) + a8 * a8;
+        long c17 = (a8 * a9) << 1;
+        long c18 = a9 * a9;
+        reduce(r, c0, c1, c2, c3, c4, c5, c6, c7, c8, c9, c10, c11, c12, c13, c14, c15, c16, c17, c18);
+    }
+
+    /**
+     * Reduces a product given as 19 columns of 26-bit positions.
+     * Columns 10 and up are folded down using 2^260 = 2^36 + 0x3D10 (mod p).
+     */
+    private static void reduce(int[] r, long c0, long c1, long c2, long c3, long c4, long c5, long c6, long c7, long c8, long c9,
+                               long c10, long c11, long c12, long c13, long c14, long c15, long c16, long c17, long c18) {
+        c1 += c0 >>> 26;
+        c0 &= M26;
+        c2 += c1 >>> 26;
+        c1 &= M26;
+        c3 += c2 >>> 26;
+        c2 &= M26;
+        c4 += c3 >>> 26;
+        c3 &= M26;
+        c5 += c4 >>> 26;
+        c4 &= M26;
+        c6 += c5 >>> 26;
+        c5 &= M26;
+        c7 += c6 >>> 26;
+        c6 &= M26;
+        c8 += c7 >>> 26;
+        c7 &= M26;
+        c9 += c8 >>> 26;
+        c8 &= M26;
+        c10 += c9 >>> 26;
+        c9 &= M26;
+        c11 += c10 >>> 26;
+        c10 &= M26;
+        c12 += c11 >>> 26;
+        c11 &= M26;
+        c13 += c12 >>> 26;
+        c12 &= M26;
+        c14 += c13 >>> 26;
+        c13 &= M26;
+        c15 += c14 >>> 26;
+        c14 &= M26;
+        c16 += c15 >>> 26;
+        c15 &= M26;
+        c17 += c16 >>> 26;
+        c16 &= M26;
+        c18 += c17 >>> 26;
+        c17 &= M26;
+        long c19 = c18 >>> 26;
+        c18 &= M26;
+        c9 += c19 * 0x3D10;
+        c10 += c19 << 10;
+        c8 += c18 * 0x3D10;
+        c9 += c18 << 10;
+        c7 += c17 * 0x3D10;
+        c8 += c17 << 10;
+        c6 += c16 * 0x3D10;
+        c7 += c16 << 10;
+        c5 += c15 * 0x3D10;
+        c6 += c15 << 10;
+        c4 += c14 * 0x3D10;
+        c5 += c14 << 10;
+        c3 += c13 * 0x3D10;
+        c4 += c13 << 10;
+        c2 += c12 * 0x3D10;
+        c3 += c12 << 10;
+        c1 += c11 * 0x3D10;
+        c2 += c11 << 10;
+        c0 += c10 * 0x3D10;
+        c1 += c10 << 10;
+        c1 += c0 >>> 26;
+        c2 += c1 >>> 26;
+        c3 += c2 >>> 26;
+        c4 += c3 >>> 26;
+        c5 += c4 >>> 26;
+        c6 += c5 >>> 26;
+        c7 += c6 >>> 26;
+        c8 += c7 >>> 26;
+        c9 += c8 >>> 26;
+        long top = c9 >>> 22;
+        c0 = (c0 & M26) + top * 0x3D1;
+        c1 = (c1 & M26) + (top << 6);
+        r[0] = (int) c0;
+        r[1] = (int) c1;
+        r[2] = (int) (c2 & M26);
+        r[3] = (int) (c3 & M26);
+        r[4] = (int) (c4 & M26);
+        r[5] = (int) (c5 & M26);
+        r[6] = (int) (c6 & M26);
+        r[7] = (int) (c7 & M26);
+        r[8] = (int) (c8 & M26);
+        r[9] = (int) (c9 & M22);
+        normalizeWeak(r);
+    }
+
+    /**
+     * Propagates carries so every limb fits into its width again, folding the bits above 2^256 back as 2^32 + 977.
+     */
+    static void normalizeWeak(int[] r) {
+        int t0 = r[0], t1 = r[1], t2 = r[2], t3 = r[3], t4 = r[4], t5 = r[5], t6 = r[6], t7 = r[7], t8 = r[8], t9 = r[9];
+        int x = t9 >>> 22;
+        t9 &= M22;
+        t0 += x * 0x3D1;
+        t1 += x << 6;
+        t1 += t0 >>> 26;
+        t0 &= M26;
+        t2 += t1 >>> 26;
+        t1 &= M26;
+        t3 += t2 >>> 26;
+        t2 &= M26;
+        t4 += t3 >>> 26;
+        t3 &= M26;
+        t5 += t4 >>> 26;
+        t4 &= M26;
+        t6 += t5 >>> 26;
+        t5 &= M26;
+        t7 += t6 >>> 26;
+        t6 &= M26;
+        t8 += t7 >>> 26;
+        t7 &= M26;
+        t9 += t8 >>> 26;
+        t8 &= M26;
+        r[0] = t0;
+        r[1] = t1;
+        r[2] = t2;
+        r[3] = t3;
+        r[4] = t4;
+        r[5] = t5;
+        r[6] = t6;
+        r[7] = t7;
+        r[8] = t8;
+        r[9] = t9;
+    }
+
+    /**
+     * Brings the element to the unique representation below p.
+     */
+    static void normalize(int[] r) {
+        normalizeWeak(r);
+        //the first pass may leave exactly 2^22 in the top limb, the second one folds it
+        normalizeWeak(r);
+        //the value is below 2^256 now, it is not below p if adding 2^256 - p carries out of 256 bits
+        int carry = (r[0] + 0x3D1) >>> 26;
+        carry = (r[1] + 0x40 + carry) >>> 26;
+        for (int i = 2; i < LIMBS - 1; i++) {
+            carry = (r[i] + carry) >>> 26;
+        }
+        //the subtraction is masked rather than skipped, so normalizing takes the same steps for every value
+        int mask = -((r[9] + carry) >>> 22);
+        int t = r[0] + (0x3D1 & mask);
+        r[0] = t & M26;
+        t = r[1] + (0x40 & mask) + (t >>> 26);
+        r[1] = t & M26;
+        for (int i = 2; i < LIMBS - 1; i++) {
+            t = r[i] + (t >>> 26);
+            r[i] = t & M26;
+        }
+        r[9] = (r[9] + (t >>> 26)) & M22;
+    }
+
+    static boolean isZero(int[] a) {
+        int[] t = a.clone();
+        normalize(t);
+        int bits = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            bits |= t[i];
+        }
+        return bits == 0;
+    }
+
+    /**
+     * @return true if the lowest bit of a normalized element is set
+     */
+    static boolean isOdd(int[] a) {
+        return (a[0] & 1) != 0;
+    }
+
+    static boolean equal(int[] a, int[] b) {
+        int[] t = new int[LIMBS];
+        sub(t, a, b);
+        return isZero(t);
+    }
+
+    private static void sqrTimes(int[] r, int[] a, int n) {
+        sqr(r, a);
+        for (int i = 1; i < n; i++) {
+            sqr(r, r);
+        }
+    }
+
+    /**
+     * Computes the chain of a^(2^k - 1) for the inversion and the square root, both exponents start with 223 ones.
+     *
+     * @return x2, x3, x22 and x223
+     */
+    private static int[][] powerChain(int[] a) {
+        int[] x2 = new int[LIMBS], x3 = new int[LIMBS], x6 = new int[LIMBS], x9 = new int[LIMBS], x11 = new int[LIMBS],
+                x22 = new int[LIMBS], x44 = new int[LIMBS], x88 = new int[LIMBS], x176 = new int[LIMBS], x220 = new int[LIMBS],
+                x223 = new int[LIMBS];
+        sqr(x2, a);
+        mul(x2, x2, a);
+        sqr(x3, x2);
+        mul(x3, x3, a);
+        sqrTimes(x6, x3, 3);
+        mul(x6, x6, x3);
+        sqrTimes(x9, x6, 3);
+        mul(x9, x9, x3);
+        sqrTimes(x11, x9, 2);
+        mul(x11, x11, x2);
+        sqrTimes(x22, x11, 11);
+        mul(x22, x22, x11);
+        sqrTimes(x44, x22, 22);
+        mul(x44, x44, x22);
+        sqrTimes(x88, x44, 44);
+        mul(x88, x88, x44);
+        sqrTimes(x176, x88, 88);
+        mul(x176, x176, x88);
+        sqrTimes(x220, x176, 44);
+        mul(x220, x220, x44);
+        sqrTimes(x223, x220, 3);
+        mul(x223, x223, x3);
+        return new int[][]{x2, x3, x22, x223};
+    }
+
+    /**
+     * r = a^(p-2) = 1/a, zero stays zero.
+     */
+    static void inv(int[] r, int[] a) {
+        int[][] chain = powerChain(a);
+        int[] t = new int[LIMBS];
+        sqrTimes(t, chain[3], 23);
+        mul(t, t, chain[2]);
+        sqrTimes(t, t, 5);
+        mul(t, t, a);
+        sqrTimes(t, t, 3);
+        mul(t, t, chain[0]);
+        sqrTimes(t, t, 2);
+        mul(r, t, a);
+    }
+
+    /**
+     * r = a^((p+1)/4), which is a square root of a when there is one (p = 3 mod 4).
+     *
+     * @return false if a has no square root
+     */
+    static boolean sqrt(int[] r, int[] a) {
+        int[][] chain = powerChain(a);
+        int[] t = new int[LIMBS];
+        sqrTimes(t, chain[3], 23);
+        mul(t, t, chain[2]);
+        sqrTimes(t, t, 6);
+        mul(t, t, chain[0]);
+        sqrTimes(t, t, 2);
+        int[] check = new int[LIMBS];
+        sqr(check, t);
+        boolean isSquare = equal(check, a);
+        set(r, t);
+        return isSquare;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic modulo the order of secp256k1, n = 2^256 - 0x14551231950B75FC4402DA1732FC9BEBF.
+ * <p>
+ * A scalar is an int[8] of unsigned 32-bit limbs, least significant first. A product of two limbs plus two more
+ * limbs still fits into an unsigned long, so the carries are taken with unsigned shifts.
+ * Unless said otherwise results are fully reduced and may share arrays with arguments.
+ * <p>
+ * Private keys and nonces go through this arithmetic, so reductions, additions, negations and comparisons
+ * don't branch on the values: they run a fixed sequence of limb operations and pick results with masks.
+ * Only the lambda decomposition, which is used for public scalars of signature verification, is variable-time.
+ */
+final class Secp256k1Scalar {
+    static final int LIMBS = 8;
+    private static final long MASK = 0xFFFFFFFFL;
+    private static final int[] N = {0xD0364141, 0xBFD25E8C, 0xAF48A03B, 0xBAAEDCE6, 0xFFFFFFFE, 0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF};
+    private static final int[] N_MINUS_2 = {0xD036413F, 0xBFD25E8C, 0xAF48A03B, 0xBAAEDCE6, 0xFFFFFFFE, 0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF};
+    private static final int[] HALF_N = {0x681B20A0, 0xDFE92F46, 0x57A4501D, 0x5D576E73, 0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF, 0x7FFFFFFF};
+    /**
+     * 2^256 - n, the value 2^256 takes modulo n.
+     */
+    private static final int[] N_C = {0x2FC9BEBF, 0x402DA173, 0x50B75FC4, 0x45512319, 0x00000001};
+    /**
+     * Cube root of unity modulo n: lambda * (x, y) = (beta * x, y) on the curve.
+     */
+    static final int[] LAMBDA = {0x1B23BD72, 0xDF02967C, 0x20816678, 0x122E22EA, 0x8812645A, 0xA5261C02, 0xC05C30E0, 0x5363AD4C};
+    /**
+     * Constants of the lambda decomposition taken from libsecp256k1: -b1 and -b2 are parts of the short lattice basis
+     * and g1, g2 are 2^384 * b2 / n and 2^384 * (-b1) / n, rounded.
+     */
+    private static final int[] MINUS_B1 = {0x0ABFE4C3, 0x6F547FA9, 0x010E8828, 0xE4437ED6, 0, 0, 0, 0};
+    private static final int[] MINUS_B2 = {0x3DB1562C, 0xD765CDA8, 0x0774346D, 0x8A280AC5, 0xFFFFFFFE, 0xFFFFFFFF, 0xFFFFFFFF, 0xFFFFFFFF};
+    private static final int[] G1 = {0x45DBB031, 0xE893209A, 0x71E8CA7F, 0x3DAA8A14, 0x9284EB15, 0xE86C90E4, 0xA7D46BCD, 0x3086D221};
+    private static final int[] G2 = {0x8AC47F71, 0x1571B4AE, 0x9DF506C6, 0x221208AC, 0x0ABFE4C4, 0x6F547FA9, 0x010E8828, 0xE4437ED6};
+
+    private Secp256k1Scalar() {
+    }
+
+    /**
+     * Reads up to 32 big-endian bytes as is, without the reduction.
+     */
+    static int[] fromBytes(byte[] bytes, int offset, int length) {
+        int[] r = new int[LIMBS];
+        for (int i = 0; i < length; i++) {
+            int bit = i << 3;
+            r[bit >>> 5] |= (bytes[offset + length - 1 - i] & 0xff) << (bit & 31);
+        }
+        return r;
+    }
+
+    /**
+     * Reads the first 32 big-endian bytes and reduces the value modulo n.
+     */
+    static int[] fromBytesReduced(byte[] bytes) {
+        int[] r = fromBytes(bytes, 0, 32);
+        reduceOnce(r, 0);
+        return r;
+    }
+
+    /**
+     * @return the value modulo n, the number must be positive and not wider than 256 bits
+     */
+    static int[] fromBigInteger(BigInteger value) {
+        if (value.signum() < 0 || value.bitLength() > 256) {
+            throw new IllegalArgumentException("Scalar out of range");
+        }
+        byte[] bytes = value.toByteArray();
+        int offset = bytes.length > 32 ? bytes.length - 32 : 0;
+        int[] r = fromBytes(bytes, offset, bytes.length - offset);
+        reduceOnce(r, 0);
+        return r;
+    }
+
+    static void getBytes(int[] a, byte[] out, int offset) {
+        for (int i = 0; i < 32; i++) {
+            out[offset + 31 - i] = (byte) (a[i >>> 2] >>> ((i & 3) << 3));
+        }
+    }
+
+    static byte[] getBytes(int[] a) {
+        byte[] bytes = new byte[32];
+        getBytes(a, bytes, 0);
+        return bytes;
+    }
+
+    static boolean isZero(int[] a) {
+        int bits = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            bits |= a[i];
+        }
+        return bits == 0;
+    }
+
+    /**
+     * @return true for 0 < a < n, which is the range of private keys and of signature values
+     */
+    static boolean isValid(int[] a) {
+        return !isZero(a) && lessThan(a, N);
+    }
+
+    /**
+     * @return true if a is above n/2, these s values are not allowed in signatures by BIP62
+     */
+    static boolean isHigh(int[] a) {
+        return lessThan(HALF_N, a);
+    }
+
+    /**
+     * @return true if a &lt; b, which is the borrow out of a - b
+     */
+    static boolean lessThan(int[] a, int[] b) {
+        long borrow = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            borrow = ((a[i] & MASK) - (b[i] & MASK) - borrow) >>> 63;
+        }
+        return borrow != 0;
+    }
+
+    /**
+     * Subtracts n from carry * 2^256 + r if the value isn't below n, the value must be below 2n.
+     */
+    private static void reduceOnce(int[] r, long carry) {
+        int[] t = new int[LIMBS];
+        long borrow = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long d = (r[i] & MASK) - (N[i] & MASK) - borrow;
+            t[i] = (int) d;
+            borrow = d >>> 63;
+        }
+        //-1 if there was a carry or no borrow, which means the value is at least n
+        int mask = (int) -((carry | (borrow ^ 1)) & 1);
+        for (int i = 0; i < LIMBS; i++) {
+            r[i] = (r[i] & ~mask) | (t[i] & mask);
+        }
+    }
+
+    static void add(int[] r, int[] a, int[] b) {
+        long carry = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long t = (a[i] & MASK) + (b[i] & MASK) + carry;
+            r[i] = (int) t;
+            carry = t >>> 32;
+        }
+        reduceOnce(r, carry);
+    }
+
+    static void negate(int[] r, int[] a) {
+        int bits = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            bits |= a[i];
+        }
+        //-1 unless a is zero, whose negation is zero rather than n
+        int mask = (bits | -bits) >> 31;
+        long borrow = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long t = (N[i] & MASK) - (a[i] & MASK) - borrow;
+            r[i] = (int) t & mask;
+            borrow = t >>> 63;
+        }
+    }
+
+    /**
+     * @return k + n or k + 2n as 9 limbs, whichever has the highest bit at 256, so a multiplication by it
+     * takes a fixed number of steps. k must be reduced.
+     */
+    static int[] withFixedLength(int[] k) {
+        int[] once = new int[LIMBS + 1];
+        int[] twice = new int[LIMBS + 1];
+        long carry = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long t = (k[i] & MASK) + (N[i] & MASK) + carry;
+            once[i] = (int) t;
+            carry = t >>> 32;
+        }
+        once[LIMBS] = (int) carry;
+        carry = 0;
+        for (int i = 0; i < LIMBS; i++) {
+            long t = (once[i] & MASK) + (N[i] & MASK) + carry;
+            twice[i] = (int) t;
+            carry = t >>> 32;
+        }
+        twice[LIMBS] = (int) carry + once[LIMBS];
+        //-1 if k + n already reaches 2^256
+        int mask = -once[LIMBS];
+        for (int i = 0; i <= LIMBS; i++) {
+            once[i] = (once[i] & mask) | (twice[i] & ~mask);
+        }
+        return once;
+    }
+
+    static void mul(int[] r, int[] a, int[] b) {
+        reduce(r, multiplyWide(a, b));
+    }
+
+    /**
+     * @return the full 512-bit product
+     */
+    private static int[] multiplyWide(int[] a, int[] b) {
+        int[] product = new int[LIMBS * 2];
+        for (int i = 0; i < LIMBS; i++) {
+            long ai = a[i] & MASK;
+            long carry = 0;
+            for (int j = 0; j < LIMBS; j++) {
+                long t = ai * (b[j] & MASK) + (product[i + j] & MASK) + carry;
+                product[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+            product[i + LIMBS] = (int) carry;
+        }
+        return product;
+    }
+
+    /**
+     * r = round(a * b / 2^384), the product isn't reduced.
+     */
+    private static void mulShiftRounded(int[] r, int[] a, int[] b) {
+        int[] product = multiplyWide(a, b);
+        long carry = (product[11] >>> 31) & 1;
+        for (int i = 0; i < 4; i++) {
+            long t = (product[12 + i] & MASK) + carry;
+            r[i] = (int) t;
+            carry = t >>> 32;
+        }
+        r[4] = (int) carry;
+        for (int i = 5; i < LIMBS; i++) {
+            r[i] = 0;
+        }
+    }
+
+    /**
+     * Splits k into r1 + r2 * lambda (mod n) where r1 and r2 are about half as wide as k (GLV decomposition).
+     * Each of the results is either below 2^128 or above n - 2^128, in the latter case its negation is short.
+     * r1 and r2 must be different arrays, neither of them may be k.
+     */
+    static void splitLambda(int[] r1, int[] r2, int[] k) {
+        int[] c1 = new int[LIMBS];
+        int[] c2 = new int[LIMBS];
+        mulShiftRounded(c1, k, G1);
+        mulShiftRounded(c2, k, G2);
+        mul(c1, c1, MINUS_B1);
+        mul(c2, c2, MINUS_B2);
+        add(r2, c1, c2);
+        mul(r1, r2, LAMBDA);
+        negate(r1, r1);
+        add(r1, r1, k);
+    }
+
+    /**
+     * Folds the limbs above 2^256 back as multiples of 2^256 - n, always in the same four steps whatever the value is:
+     * a 512-bit product shrinks to 386, then to 260 bits, then to 256 bits plus a carry, which the last step folds.
+     */
+    private static void reduce(int[] r, int[] wide) {
+        int[] t386 = fold(wide, LIMBS, 13);
+        int[] t260 = fold(t386, 5, LIMBS + 1);
+        int[] t257 = fold(t260, 1, LIMBS + 1);
+        //a carry into 2^256 leaves less than 2^133 below it, so adding 2^256 - n doesn't carry again
+        int[] t256 = fold(t257, 1, LIMBS + 1);
+        System.arraycopy(t256, 0, r, 0, LIMBS);
+        //the value is below 2^256 < 2n here
+        reduceOnce(r, 0);
+    }
+
+    /**
+     * @param highLength number of limbs above 2^256 in a, all of them are folded even if they are zero
+     * @return low 256 bits of a plus its high limbs multiplied by 2^256 - n, in the given number of limbs
+     */
+    private static int[] fold(int[] a, int highLength, int length) {
+        int[] r = new int[length];
+        System.arraycopy(a, 0, r, 0, LIMBS);
+        for (int i = 0; i < highLength; i++) {
+            long high = a[LIMBS + i] & MASK;
+            long carry = 0;
+            for (int j = 0; j < N_C.length; j++) {
+                long t = high * (N_C[j] & MASK) + (r[i + j] & MASK) + carry;
+                r[i + j] = (int) t;
+                carry = t >>> 32;
+            }
+            for (int k = i + N_C.length; k < length; k++) {
+                long t = (r[k] & MASK) + carry;
+                r[k] = (int) t;
+                carry = t >>> 32;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * r = a^(n-2) = 1/a, with a fixed 4-bit window over the exponent.
+     */
+    static void inv(int[] r, int[] a) {
+        int[][] powers = new int[16][];
+        powers[1] = a.clone();
+        for (int i = 2; i < 16; i++) {
+            powers[i] = new int[LIMBS];
+            mul(powers[i], powers[i - 1], a);
+        }
+        int[] acc = null;
+        for (int i = LIMBS * 8 - 1; i >= 0; i--) {
+            int nibble = (N_MINUS_2[i >>> 3] >>> ((i & 7) << 2)) & 0xF;
+            if (acc == null) {
+                acc = powers[nibble].clone();//the top nibble is F
+                continue;
+            }
+            for (int j = 0; j < 4; j++) {
+                mul(acc, acc, acc);
+            }
+            if (nibble != 0) {
+                mul(acc, acc, powers[nibble]);
+            }
+        }
+        System.arraycopy(acc, 0, r, 0, LIMBS);
+    }
+}
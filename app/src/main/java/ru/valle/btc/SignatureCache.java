@@ -0,0 +1,91 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * Bounded LRU set of signatures which passed verification, so checking the same input again
+ * (a rebuilt transaction, a repeated validation run) costs a hash instead of an EC multiplication.
+ * <p>
+ * Like the signature cache of bitcoin core it stores only successful checks, each as a salted SHA-256 of
+ * the signed hash, the public key and the signature. The salt is random per cache, so colliding entries can't be prepared in advance.
+ */
+public final class SignatureCache {
+    private final SegmentedLruCache<ByteBuffer, Boolean> entries;
+    private final byte[] salt = new byte[32];
+
+    /**
+     * @param capacity number of signatures to keep, 0 disables the cache
+     */
+    public SignatureCache(int capacity) {
+        entries = new SegmentedLruCache<>(capacity);
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * @return true if this signature of the hash by the key was verified recently
+     */
+    boolean contains(byte[] hash, byte[] publicKey, byte[] signature, int signatureLength) {
+        return entries.isEnabled() && entries.get(entry(hash, publicKey, signature, signatureLength)) != null;
+    }
+
+    /**
+     * Remembers a signature which was verified successfully.
+     */
+    void add(byte[] hash, byte[] publicKey, byte[] signature, int signatureLength) {
+        if (!entries.isEnabled()) {
+            return;
+        }
+        entries.put(entry(hash, publicKey, signature, signatureLength), Boolean.TRUE);
+    }
+
+    private ByteBuffer entry(byte[] hash, byte[] publicKey, byte[] signature, int signatureLength) {
+        MessageDigest sha256 = Digests.sha256();
+        sha256.update(salt);
+        sha256.update(hash);
+        sha256.update(publicKey);
+        sha256.update(signature, 0, signatureLength);
+        return ByteBuffer.wrap(sha256.digest());
+    }
+
+    public long getHitCount() {
+        return entries.getHitCount();
+    }
+
+    public long getMissCount() {
+        return entries.getMissCount();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -27,13 +27,18 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Locale;
 import java.util.Stack;
 
+/**
+ * Bitcoin transaction. Arrays of inputs, outputs and witnesses are shared with the caller and must not be changed after
+ * the transaction is constructed: the txid and wtxid are computed once and remembered.
+ */
 @SuppressWarnings("WeakerAccess")
 public final class Transaction {
     public final int version;
@@ -41,16 +46,26 @@ public final class Transaction {
     public final Output[] outputs;
     public final byte[][][] scriptWitnesses;
     public final int lockTime;
+    /**
+     * Lazily computed txid and wtxid. Threads may race to compute them, which is harmless as they get the same value.
+     */
+    private volatile byte[] hash, witnessHash;
 
+    /**
+     * Decodes transaction with or without BIP144 witness data, telling them apart by the marker and flag.
+     */
     public static Transaction decodeTransaction(byte[] rawBytes) throws BitcoinException {
-        try {
-            return new Transaction(rawBytes, true);
-        } catch (BitcoinException e) {
-            if (e.errorCode == BitcoinException.ERR_WRONG_TYPE) {
-                return new Transaction(rawBytes, false);
-            }
-            throw e;
-        }
+        return new Transaction(TransactionView.parse(ByteBuffer.wrap(requireInput(rawBytes))));
+    }
+
+    /**
+     * Decodes transaction only if it's in the canonical form and takes the whole array, so serializing it gives the same bytes.
+     * Cheaper than decoding and comparing with {@link #getBytes()}.
+     *
+     * @see TransactionView#parseCanonical(ByteBuffer, boolean)
+     */
+    public static Transaction decodeCanonicalTransaction(byte[] rawBytes) throws BitcoinException {
+        return new Transaction(TransactionView.parseCanonical(requireInput(rawBytes), false));
     }
 
     /**
@@ -61,74 +76,38 @@ public final class Transaction {
     }
 
     public Transaction(byte[] rawBytes, boolean withWitness) throws BitcoinException {
+        this(TransactionView.parse(requireInput(rawBytes), withWitness));
+    }
+
+    private static byte[] requireInput(byte[] rawBytes) throws BitcoinException {
         if (rawBytes == null) {
             throw new BitcoinException(BitcoinException.ERR_NO_INPUT, "empty input");
         }
-        BitcoinInputStream bais = null;
-        try {
-            bais = new BitcoinInputStream(rawBytes);
-            version = bais.readInt32();
-            if (withWitness) {
-                if (bais.readByte() != 0) {
-                    throw new BitcoinException(BitcoinException.ERR_WRONG_TYPE, "", version);
-                }
-                if (bais.readByte() == 0) {
-                    throw new BitcoinException(BitcoinException.ERR_WRONG_TYPE, "", version);
-                }
-            }
-            int inputsCount = (int) bais.readVarInt();
-            inputs = new Input[inputsCount];
-            for (int i = 0; i < inputsCount; i++) {
-                OutPoint outPoint = new OutPoint(BTCUtils.reverse(bais.readChars(32)), bais.readInt32());
-                byte[] script = bais.readChars((int) bais.readVarInt());
-                int sequence = bais.readInt32();
-                inputs[i] = new Input(outPoint, new Script(script), sequence);
-            }
-            int outputsCount = (int) bais.readVarInt();
-            outputs = new Output[outputsCount];
-            for (int i = 0; i < outputsCount; i++) {
-                long value = bais.readInt64();
-                long scriptSize = bais.readVarInt();
-                if (scriptSize < 0 || scriptSize > 10_000_000) {
-                    throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Script size for output " + i +
-                            " is strange (" + scriptSize + " bytes).");
-                }
-                byte[] script = bais.readChars((int) scriptSize);
-                outputs[i] = new Output(value, new Script(script));
-            }
-            scriptWitnesses = new byte[withWitness ? inputsCount : 0][][];
-            for (int i = 0; i < scriptWitnesses.length; i++) {
-                long stackItemsCount = bais.readVarInt();
-                if (stackItemsCount < 0 || stackItemsCount > 10_000_000) {
-                    throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Stack count size " + i +
-                            " is strange (" + stackItemsCount + ").");
-                }
-                scriptWitnesses[i] = new byte[(int) stackItemsCount][];
-                for (int j = 0; j < stackItemsCount; j++) {
-                    long itemLength = bais.readVarInt();
-                    if (itemLength < 0 || itemLength > 10_000_000) {
-                        throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Item length " + i + ' ' + j +
-                                " is strange (" + itemLength + " bytes).");
-                    }
-                    scriptWitnesses[i][j] = bais.readChars((int) itemLength);
-                }
-            }
-            lockTime = bais.readInt32();
-        } catch (EOFException e) {
-            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "TX incomplete");
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Unable to read TX");
-        } catch (Error e) {
-            throw new IllegalArgumentException("Unable to read TX: " + e);
-        } finally {
-            if (bais != null) {
-                try {
-                    bais.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        return rawBytes;
+    }
+
+    /**
+     * Copies scripts, outpoint hashes and witnesses out of the parsed buffer.
+     */
+    Transaction(TransactionView view) {
+        version = view.version;
+        inputs = new Input[view.getInputsCount()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new Input(new OutPoint(view.getOutPointHash(i), view.getOutPointIndex(i)),
+                    new Script(view.getInputScript(i)), view.getSequence(i));
+        }
+        outputs = new Output[view.getOutputsCount()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new Output(view.getOutputValue(i), new Script(view.getOutputScript(i)));
+        }
+        scriptWitnesses = new byte[view.hasWitness() ? inputs.length : 0][][];
+        for (int i = 0; i < scriptWitnesses.length; i++) {
+            scriptWitnesses[i] = new byte[view.getWitnessItemsCount(i)][];
+            for (int j = 0; j < scriptWitnesses[i].length; j++) {
+                scriptWitnesses[i][j] = view.getWitnessItem(i, j);
             }
         }
+        lockTime = view.lockTime;
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -152,8 +131,39 @@ public final class Transaction {
         return inputs.length == 1 && inputs[0].outPoint.isNull();
     }
 
+    /**
+     * @return txid in the usual (reversed) byte order, hashed on the first call and remembered
+     */
     public byte[] hash() {
-        return BTCUtils.reverseInPlace(BTCUtils.doubleSha256(getBytes(false)));
+        byte[] hash = this.hash;
+        if (hash == null) {
+            hash = BTCUtils.reverseInPlace(doubleSha256(false));
+            this.hash = hash;
+        }
+        return hash.clone();
+    }
+
+    /**
+     * @return wtxid (BIP141) in the reversed byte order, the same as txid for transactions without witnesses
+     */
+    public byte[] witnessHash() {
+        if (scriptWitnesses.length == 0) {
+            return hash();
+        }
+        byte[] hash = this.witnessHash;
+        if (hash == null) {
+            hash = BTCUtils.reverseInPlace(doubleSha256(true));
+            this.witnessHash = hash;
+        }
+        return hash.clone();
+    }
+
+    private byte[] doubleSha256(boolean withWitness) {
+        MessageDigest sha256 = Digests.sha256();
+        writeTo(BitcoinSink.digest(sha256), withWitness);
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.finishDoubleSha256(sha256, hash, 0);
+        return hash;
     }
 
     public byte[] getBytes() {
@@ -166,57 +176,106 @@ public final class Transaction {
     }
 
     public byte[] getBytes(boolean withWitness) {
+        byte[] bytes = new byte[withWitness ? getTotalSize() : getBaseSize()];
+        writeTo(BitcoinSink.of(bytes, 0), withWitness);
+        return bytes;
+    }
+
+    /**
+     * Serializes the transaction at the position of the buffer and advances it.
+     *
+     * @return number of bytes written
+     * @throws java.nio.BufferOverflowException if the transaction doesn't fit, part of it may be written then
+     */
+    public int writeTo(ByteBuffer buffer, boolean withWitness) {
+        int start = buffer.position();
+        writeTo(BitcoinSink.of(buffer), withWitness);
+        return buffer.position() - start;
+    }
+
+    /**
+     * @return size of the serialization without witness data, counted without serializing
+     */
+    public int getBaseSize() {
+        int size = 4 + BitcoinSink.varIntSize(inputs.length);
+        for (Input input : inputs) {
+            int scriptLen = input.scriptSig == null ? 0 : input.scriptSig.bytes.length;
+            size += 32 + 4 + BitcoinSink.varIntSize(scriptLen) + scriptLen + 4;
+        }
+        size += BitcoinSink.varIntSize(outputs.length);
+        for (Output output : outputs) {
+            int scriptLen = output.scriptPubKey == null ? 0 : output.scriptPubKey.bytes.length;
+            size += 8 + BitcoinSink.varIntSize(scriptLen) + scriptLen;
+        }
+        return size + 4;
+    }
+
+    /**
+     * @return size of marker, flag and witnesses, zero if there are no witnesses
+     */
+    private int getWitnessSize() {
+        if (scriptWitnesses.length == 0) {
+            return 0;
+        }
+        int size = 2;
+        for (byte[][] witness : scriptWitnesses) {
+            size += BitcoinSink.varIntSize(witness.length);
+            for (byte[] stackEntry : witness) {
+                size += BitcoinSink.varIntSize(stackEntry.length) + stackEntry.length;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return size of the serialization with witness data, if there is any
+     */
+    public int getTotalSize() {
+        return getBaseSize() + getWitnessSize();
+    }
+
+    /**
+     * Serializes the transaction, with BIP144 witness data if asked for and if there is any.
+     */
+    void writeTo(BitcoinSink out, boolean withWitness) {
         if (withWitness && scriptWitnesses.length == 0) {
             withWitness = false;
         }
-        BitcoinOutputStream baos = new BitcoinOutputStream();
-        try {
-            baos.writeInt32(version);
-            if (withWitness) {
-                baos.write(0);
-                baos.write(1);
-            }
-            baos.writeVarInt(inputs.length);
-            for (Input input : inputs) {
-                baos.write(BTCUtils.reverse(input.outPoint.hash));
-                baos.writeInt32(input.outPoint.index);
-                int scriptLen = input.scriptSig == null ? 0 : input.scriptSig.bytes.length;
-                baos.writeVarInt(scriptLen);
-                if (scriptLen > 0) {
-                    baos.write(input.scriptSig.bytes);
-                }
-                baos.writeInt32(input.sequence);
-            }
-            baos.writeVarInt(outputs.length);
-            for (Output output : outputs) {
-                baos.writeInt64(output.value);
-                int scriptLen = output.scriptPubKey == null ? 0 : output.scriptPubKey.bytes.length;
-                baos.writeVarInt(scriptLen);
-                if (scriptLen > 0) {
-                    baos.write(output.scriptPubKey.bytes);
-                }
+        out.writeInt32(version);
+        if (withWitness) {
+            out.write(0);
+            out.write(1);
+        }
+        out.writeVarInt(inputs.length);
+        for (Input input : inputs) {
+            out.writeReversed(input.outPoint.hash);
+            out.writeInt32(input.outPoint.index);
+            int scriptLen = input.scriptSig == null ? 0 : input.scriptSig.bytes.length;
+            out.writeVarInt(scriptLen);
+            if (scriptLen > 0) {
+                out.write(input.scriptSig.bytes);
+            }
+            out.writeInt32(input.sequence);
+        }
+        out.writeVarInt(outputs.length);
+        for (Output output : outputs) {
+            out.writeInt64(output.value);
+            int scriptLen = output.scriptPubKey == null ? 0 : output.scriptPubKey.bytes.length;
+            out.writeVarInt(scriptLen);
+            if (scriptLen > 0) {
+                out.write(output.scriptPubKey.bytes);
             }
-            if (withWitness) {
-                for (byte[][] witness : scriptWitnesses) {
-                    baos.writeVarInt(witness.length);
-                    for (byte[] stackEntry : witness) {
-                        baos.writeVarInt(stackEntry.length);
-                        baos.write(stackEntry);
-                    }
+        }
+        if (withWitness) {
+            for (byte[][] witness : scriptWitnesses) {
+                out.writeVarInt(witness.length);
+                for (byte[] stackEntry : witness) {
+                    out.writeVarInt(stackEntry.length);
+                    out.write(stackEntry);
                 }
             }
-            baos.writeInt32(lockTime);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                baos.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
-        return baos.toByteArray();
-
+        out.writeInt32(lockTime);
     }
 
     @Override
@@ -273,13 +332,11 @@ public final class Transaction {
     }
 
     public int getWeightUnits() {
-        int legacySize = getBytes(false).length;
-        int witnessSize = getBytes(true).length - legacySize;
-        return legacySize * 4 + witnessSize;
+        return getBaseSize() * 4 + getWitnessSize();
     }
 
     public int getVBytesSize() {
-        return (int) Math.ceil(getWeightUnits() / 4f);
+        return (getWeightUnits() + 3) / 4;
     }
 
     public static class Input {
@@ -620,8 +677,6 @@ public final class Transaction {
                             if (!checkSignatureEncoding(signatureAndHashType, flags)) {// || !checkPubKeyEncoding(vchPubKey, flags, sigversion, serror)) {
                                 return false;
                             }
-                            byte[] signature = new byte[signatureAndHashType.length - 1];
-                            System.arraycopy(signatureAndHashType, 0, signature, 0, signature.length);
                             byte[] subScript;
                             if (pbegincodehash == 0) {
                                 subScript = bytes;
@@ -638,7 +693,7 @@ public final class Transaction {
                                 return false; //set_error(serror, SCRIPT_ERR_ILLEGAL_FORKID);
                             }
                             byte[] hash = hashTransaction(checker.inputIndex, subScript, checker.spendTx, hashType, checker.amount, sigVersion);
-                            valid = BTCUtils.verify(publicKey, signature, hash);
+                            valid = BTCUtils.verify(publicKey, signatureAndHashType, signatureAndHashType.length - 1, hash);
                         }
                         if (!valid && (flags & SCRIPT_VERIFY_NULLFAIL) != 0 && signatureAndHashType.length > 0) {
                             return false;
@@ -838,91 +893,8 @@ public final class Transaction {
 
         private static boolean isValidSignatureEncoding(byte[] sig) {
             // Format: 0x30 [total-length] 0x02 [R-length] [R] 0x02 [S-length] [S] [sighash]
-            // * total-length: 1-byte length descriptor of everything that follows,
-            //   excluding the sighash byte.
-            // * R-length: 1-byte length descriptor of the R value that follows.
-            // * R: arbitrary-length big-endian encoded R value. It must use the shortest
-            //   possible encoding for a positive integers (which means no null bytes at
-            //   the start, except a single one when the next byte has its highest bit set).
-            // * S-length: 1-byte length descriptor of the S value that follows.
-            // * S: arbitrary-length big-endian encoded S value. The same rules apply.
-            // * sighash: 1-byte value indicating what data is hashed (not part of the DER
-            //   signature)
-
-            // Minimum and maximum size constraints.
-            if (sig.length < 9) {
-                return false;
-            }
-            if (sig.length > 73) {
-                return false;
-            }
-
-            // A signature is of type 0x30 (compound).
-            if (sig[0] != 0x30) {
-                return false;
-            }
-
-            // Make sure the length covers the entire signature.
-            if (sig[1] != sig.length - 3) {
-                return false;
-            }
-
-            // Extract the length of the R element.
-            int lenR = sig[3] & 0xff;
-
-            // Make sure the length of the S element is still inside the signature.
-            if (5 + lenR >= sig.length) {
-                return false;
-            }
-
-            // Extract the length of the S element.
-            int lenS = sig[5 + lenR] & 0xff;
-
-            // Verify that the length of the signature matches the sum of the length
-            // of the elements.
-            if (lenR + lenS + 7 != sig.length) {
-                return false;
-            }
-
-            // Check whether the R element is an integer.
-            if (sig[2] != 0x02) {
-                return false;
-            }
-
-            // Zero-length integers are not allowed for R.
-            if (lenR == 0) {
-                return false;
-            }
-
-            // Negative numbers are not allowed for R.
-            if ((sig[4] & 0x80) != 0) {
-                return false;
-            }
-
-            // Null bytes at the start of R are not allowed, unless R would
-            // otherwise be interpreted as a negative number.
-            if (lenR > 1 && (sig[4] == 0x00) && (sig[5] & 0x80) == 0) {
-                return false;
-            }
-
-            // Check whether the S element is an integer.
-            if (sig[lenR + 4] != 0x02) {
-                return false;
-            }
-
-            // Zero-length integers are not allowed for S.
-            if (lenS == 0) {
-                return false;
-            }
-
-            // Negative numbers are not allowed for S.
-            if ((sig[lenR + 6] & 0x80) != 0) {
-                return false;
-            }
-
-            // Null bytes at the start of S are not allowed, unless S would otherwise be
-            // interpreted as a negative number.
-            return !(lenS > 1 && (sig[lenR + 6] == 0x00) && (sig[lenR + 7] & 0x80) == 0);
+            // sighash is a 1-byte value indicating what data is hashed (not part of the DER signature)
+            return DERSignature.isValidEncoding(sig, sig.length - 1);
         }
 
         static byte[] convertDataToScript(byte[] bytes) {
@@ -1140,16 +1112,13 @@ public final class Transaction {
                 }
                 return bip143Hash(inputIndex, unsignedTransaction, hashType, subScript, amount);
             } else {
-                byte[] txUnsignedBytes = unsignedTransaction.getBytes(false);
-                BitcoinOutputStream baos = new BitcoinOutputStream();
-                try {
-                    baos.write(txUnsignedBytes);
-                    baos.writeInt32(hashType);
-                    baos.close();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-                return BTCUtils.doubleSha256(baos.toByteArray());
+                MessageDigest sha256 = Digests.sha256();
+                BitcoinSink out = BitcoinSink.digest(sha256);
+                unsignedTransaction.writeTo(out, false);
+                out.writeInt32(hashType);
+                byte[] hash = new byte[Digests.SHA256_LENGTH];
+                Digests.finishDoubleSha256(sha256, hash, 0);
+                return hash;
             }
         }
 
@@ -1324,7 +1293,7 @@ public final class Transaction {
                         break;
                     default:
                         if (token.startsWith("0x")) {
-                            byte[] data = BTCUtils.fromHex(token.substring(2));
+                            byte[] data = Hex.decode(token, 2, token.length());
                             if (data == null) {
                                 throw new IllegalArgumentException("convertReadableStringToBytesCoreStyle - I don't know what does this token mean '" + token + "' in '" + readableString + "'");
                             }
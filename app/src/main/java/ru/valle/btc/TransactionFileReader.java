@@ -0,0 +1,259 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executor;
+
+/**
+ * Sequential reader of transactions from files of concatenated raw transactions or of bitcoin core blocks (blk*.dat).
+ * The file is memory-mapped in windows, and every transaction is returned as a view over the mapping,
+ * so the heap used doesn't depend on the size of the file.
+ * Views stay valid after the reader moves on, as they keep their window mapped.
+ */
+public final class TransactionFileReader implements Closeable {
+    /**
+     * Network magic of blk*.dat records, as a little-endian int
+     */
+    public static final int MAINNET_MAGIC = 0xd9b4bef9;
+    public static final int TESTNET_MAGIC = 0x0709110b;
+    private static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final boolean blocks;
+    private final int magic;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    /**
+     * Position in the file of the next transaction or block record
+     */
+    private long position;
+    private int transactionsLeftInBlock;
+    private long blockStart;
+    private long blockEnd;
+
+    private TransactionFileReader(File file, boolean blocks, int magic, int windowSize) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        channel = this.file.getChannel();
+        size = channel.size();
+        this.blocks = blocks;
+        this.magic = magic;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Opens a file of raw transactions which follow each other without any separators.
+     */
+    public static TransactionFileReader openTransactions(File file) throws IOException {
+        return new TransactionFileReader(file, false, 0, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Opens a file of blocks in the format of bitcoin core: network magic, block size and the block.
+     * Zero bytes which are left at the end of preallocated files are treated as the end of the file.
+     */
+    public static TransactionFileReader openBlocks(File file, int magic) throws IOException {
+        return new TransactionFileReader(file, true, magic, DEFAULT_WINDOW_SIZE);
+    }
+
+    static TransactionFileReader open(File file, boolean blocks, int magic, int windowSize) throws IOException {
+        return new TransactionFileReader(file, blocks, magic, windowSize);
+    }
+
+    /**
+     * @return the next transaction, or null at the end of the file
+     * @throws BitcoinException if the data is malformed or the file ends in the middle of a transaction or block
+     */
+    public TransactionView next() throws IOException, BitcoinException {
+        if (blocks) {
+            while (transactionsLeftInBlock == 0) {
+                if (position != blockEnd) {
+                    throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Block ending at " + blockEnd + " has extra data");
+                }
+                if (!readBlockHeader()) {
+                    return null;
+                }
+            }
+        } else if (position == size) {
+            return null;
+        }
+        TransactionView transaction = readTransaction();
+        position += transaction.end - transaction.start;
+        if (blocks) {
+            transactionsLeftInBlock--;
+            if (position > blockEnd) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Transaction crosses the end of the block at " + blockEnd);
+            }
+        }
+        return transaction;
+    }
+
+    /**
+     * Reads the next block as a whole, in files opened by {@link #openBlocks(File, int)}.
+     * Transactions of the current block which weren't returned by {@link #next()} are skipped.
+     *
+     * @param executor executor to decode and hash transactions of the block in parallel, or null to do it on the calling thread
+     * @return the next block, or null at the end of the file
+     */
+    public Block nextBlock(Executor executor) throws IOException, BitcoinException {
+        if (!blocks) {
+            throw new IllegalStateException("Not a file of blocks");
+        }
+        position = blockEnd;
+        transactionsLeftInBlock = 0;
+        if (!readBlockHeader()) {
+            return null;
+        }
+        ByteBuffer block = mappedAt(blockStart);
+        ((Buffer) block).limit(block.position() + (int) (blockEnd - blockStart));
+        Block result = Block.decode(block, executor);
+        position = blockEnd;
+        transactionsLeftInBlock = 0;
+        return result;
+    }
+
+    /**
+     * @return position in the file of the next transaction or block
+     */
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private TransactionView readTransaction() throws IOException, BitcoinException {
+        if (blocks) {
+            //the whole block is mapped already
+            return TransactionView.parse(mappedAt(position));
+        }
+        if (!isMapped(position, 1)) {
+            map(position, 1);
+        }
+        try {
+            return TransactionView.parse(mappedAt(position));
+        } catch (BitcoinException e) {
+            if (windowStart == position || windowStart + window.capacity() == size) {
+                throw e;
+            }
+            //the transaction may continue after the end of the window
+            map(position, 1);
+            return TransactionView.parse(mappedAt(position));
+        }
+    }
+
+    /**
+     * Maps the next block and reads its number of transactions.
+     *
+     * @return false at the end of the file
+     */
+    private boolean readBlockHeader() throws IOException, BitcoinException {
+        if (size - position < 8) {
+            if (isZeros(position, size - position)) {
+                return false;
+            }
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Incomplete block record at " + position);
+        }
+        ensureMapped(position, 8);
+        ByteBuffer record = mappedAt(position);
+        int recordMagic = record.getInt(record.position());
+        if (recordMagic == 0 && isZeros(position, size - position)) {
+            return false;
+        }
+        if (recordMagic != magic) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Unexpected magic " + Integer.toHexString(recordMagic) + " at " + position);
+        }
+        long blockSize = record.getInt(record.position() + 4) & 0xffffffffL;
+        blockStart = position + 8;
+        if (blockSize < Block.HEADER_SIZE + 1 || blockSize > size - blockStart) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Bad block size " + blockSize + " at " + position);
+        }
+        ensureMapped(blockStart, blockSize);
+        ByteBuffer block = mappedAt(blockStart + Block.HEADER_SIZE);
+        ((Buffer) block).limit(block.position() + (int) blockSize - Block.HEADER_SIZE);
+        BitcoinCursor cursor = new BitcoinCursor(block);
+        transactionsLeftInBlock = cursor.readLength(1);
+        blockEnd = blockStart + blockSize;
+        position = blockStart + Block.HEADER_SIZE + (cursor.position() - block.position());
+        return true;
+    }
+
+    private boolean isZeros(long from, long length) throws IOException {
+        for (long chunk = from; chunk < from + length; chunk += windowSize) {
+            int chunkLength = (int) Math.min(windowSize, from + length - chunk);
+            ensureMapped(chunk, chunkLength);
+            ByteBuffer data = mappedAt(chunk);
+            for (int i = 0; i < chunkLength; i++) {
+                if (data.get(data.position() + i) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean isMapped(long from, long length) {
+        return window != null && from >= windowStart && from + length <= windowStart + window.capacity();
+    }
+
+    private void ensureMapped(long from, long length) throws IOException {
+        if (!isMapped(from, length)) {
+            map(from, length);
+        }
+    }
+
+    private void map(long from, long minLength) throws IOException {
+        long length = Math.min(Math.max(windowSize, minLength), size - from);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Can't map " + length + " bytes");
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = from;
+    }
+
+    /**
+     * @return the window with the position set to the given position in the file
+     */
+    private ByteBuffer mappedAt(long filePosition) {
+        ByteBuffer buffer = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ((Buffer) buffer).position((int) (filePosition - windowStart));
+        return buffer;
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Transaction parsed in place: only the positions of outpoints, scripts and witness items in the original buffer are recorded,
+ * and their bytes are copied when asked for. The buffer must not be modified while the view is in use.
+ */
+public final class TransactionView {
+    private static final int MIN_INPUT_SIZE = 32 + 4 + 1 + 4;
+    private static final int MIN_OUTPUT_SIZE = 8 + 1;
+
+    private final BitcoinCursor cursor;
+    /**
+     * Position of the transaction in the buffer and the position after it
+     */
+    public final int start, end;
+    public final int version;
+    public final int lockTime;
+    private final boolean witness;
+    /**
+     * Position of the inputs count and the position after the last output
+     */
+    private final int inputsStart, outputsEnd;
+    private final int inputsCount;
+    /**
+     * For every input: position of the outpoint, position and length of the script; null if inputs were skipped
+     */
+    private final int[] inputs;
+    /**
+     * For every output: position of the value, position and length of the script
+     */
+    private final int[] outputs;
+    /**
+     * Witness items of input i are items witnessStarts[i] until witnessStarts[i + 1]
+     */
+    private final int[] witnessStarts;
+    private final int[] itemOffsets, itemLengths;
+
+    /**
+     * Parses a transaction which starts at the position of the buffer. Bytes after the transaction are not read.
+     *
+     * @param withWitness expect BIP144 marker and flag
+     * @throws BitcoinException ERR_WRONG_TYPE if a witness transaction was expected but there are no marker and flag,
+     *                          ERR_BAD_FORMAT if the data is incomplete
+     */
+    public static TransactionView parse(ByteBuffer buffer, boolean withWitness) throws BitcoinException {
+        return new TransactionView(new BitcoinCursor(buffer), withWitness, true, false);
+    }
+
+    public static TransactionView parse(byte[] rawBytes, boolean withWitness) throws BitcoinException {
+        return parse(ByteBuffer.wrap(rawBytes), withWitness);
+    }
+
+    /**
+     * Parses a transaction with or without witnesses the same way {@link Transaction#decodeTransaction(byte[])} does.
+     */
+    public static TransactionView parse(ByteBuffer buffer) throws BitcoinException {
+        BitcoinCursor cursor = new BitcoinCursor(buffer);
+        return new TransactionView(cursor, hasWitnessMarker(cursor), true, false);
+    }
+
+    /**
+     * Parses a transaction with or without witnesses the same way {@link Transaction#decodeTransaction(byte[])} does,
+     * but inputs and witnesses are only skipped over: input getters of the returned view throw IllegalStateException.
+     * The cost of extracting outputs doesn't depend on the number and size of inputs then.
+     */
+    public static TransactionView parseOutputs(ByteBuffer buffer) throws BitcoinException {
+        BitcoinCursor cursor = new BitcoinCursor(buffer);
+        return new TransactionView(cursor, hasWitnessMarker(cursor), false, false);
+    }
+
+    /**
+     * Parses a transaction only if it's in the canonical form, which bitcoin core would serialize it to:
+     * varints are minimal, BIP144 flag is 1, and marker and flag are present only if some input has witness items.
+     * Bytes after the transaction are not read, it takes {@code end - start} bytes.
+     *
+     * @param outputsOnly skip over inputs and witnesses like {@link #parseOutputs(ByteBuffer)} does
+     * @throws BitcoinException ERR_BAD_FORMAT if the transaction is incomplete or isn't canonical
+     */
+    public static TransactionView parseCanonical(ByteBuffer buffer, boolean outputsOnly) throws BitcoinException {
+        BitcoinCursor cursor = new BitcoinCursor(buffer, true);
+        return new TransactionView(cursor, hasWitnessMarker(cursor), !outputsOnly, true);
+    }
+
+    /**
+     * Parses a canonical transaction like {@link #parseCanonical(ByteBuffer, boolean)} does, which must take the whole array.
+     */
+    public static TransactionView parseCanonical(byte[] rawBytes, boolean outputsOnly) throws BitcoinException {
+        TransactionView view = parseCanonical(ByteBuffer.wrap(rawBytes), outputsOnly);
+        if (view.end != rawBytes.length) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, (rawBytes.length - view.end) + " bytes after the transaction");
+        }
+        return view;
+    }
+
+    /**
+     * BIP144 marker is zero and flag is not. A legacy transaction without inputs but with outputs starts the same way,
+     * and the ambiguity is resolved in favour of BIP144, as bitcoin core does: such transactions need the legacy parse.
+     */
+    private static boolean hasWitnessMarker(BitcoinCursor cursor) {
+        return cursor.peekByte(4) == 0 && cursor.peekByte(5) > 0;
+    }
+
+    public static TransactionView parseOutputs(byte[] rawBytes) throws BitcoinException {
+        return parseOutputs(ByteBuffer.wrap(rawBytes));
+    }
+
+    /**
+     * @param canonical reject encodings which bitcoin core wouldn't produce, the cursor must check varints then
+     */
+    private TransactionView(BitcoinCursor cursor, boolean withWitness, boolean recordInputs, boolean canonical) throws BitcoinException {
+        this.cursor = cursor;
+        start = cursor.position();
+        version = cursor.readInt32();
+        if (withWitness) {
+            if (cursor.readByte() != 0) {
+                throw new BitcoinException(BitcoinException.ERR_WRONG_TYPE, "", version);
+            }
+            int flag = cursor.readByte();
+            if (flag == 0) {
+                throw new BitcoinException(BitcoinException.ERR_WRONG_TYPE, "", version);
+            }
+            if (canonical && flag != 1) {
+                throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Unknown witness flag " + flag);
+            }
+        }
+        witness = withWitness;
+        inputsStart = cursor.position();
+        int inputsCount = cursor.readLength(MIN_INPUT_SIZE);
+        this.inputsCount = inputsCount;
+        inputs = recordInputs ? new int[inputsCount * 3] : null;
+        for (int i = 0; i < inputsCount; i++) {
+            int outPoint = cursor.skip(32 + 4);
+            int scriptLength = cursor.readLength(1);
+            int script = cursor.skip(scriptLength);
+            cursor.skip(4);
+            if (inputs != null) {
+                inputs[i * 3] = outPoint;
+                inputs[i * 3 + 1] = script;
+                inputs[i * 3 + 2] = scriptLength;
+            }
+        }
+        int outputsCount = cursor.readLength(MIN_OUTPUT_SIZE);
+        outputs = new int[outputsCount * 3];
+        for (int i = 0; i < outputsCount; i++) {
+            outputs[i * 3] = cursor.skip(8);
+            int scriptLength = cursor.readLength(1);
+            outputs[i * 3 + 1] = cursor.skip(scriptLength);
+            outputs[i * 3 + 2] = scriptLength;
+        }
+        outputsEnd = cursor.position();
+        boolean hasWitnessItems = false;
+        if (withWitness && recordInputs) {
+            witnessStarts = new int[inputsCount + 1];
+            int[] offsets = new int[inputsCount * 2];
+            int[] lengths = new int[offsets.length];
+            int itemsCount = 0;
+            for (int i = 0; i < inputsCount; i++) {
+                witnessStarts[i] = itemsCount;
+                int stackItemsCount = cursor.readLength(1);
+                if (itemsCount + stackItemsCount > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, itemsCount + stackItemsCount));
+                    lengths = Arrays.copyOf(lengths, offsets.length);
+                }
+                for (int j = 0; j < stackItemsCount; j++) {
+                    int itemLength = cursor.readLength(1);
+                    offsets[itemsCount] = cursor.skip(itemLength);
+                    lengths[itemsCount] = itemLength;
+                    itemsCount++;
+                }
+            }
+            witnessStarts[inputsCount] = itemsCount;
+            hasWitnessItems = itemsCount > 0;
+            itemOffsets = offsets;
+            itemLengths = lengths;
+        } else {
+            if (withWitness) {
+                for (int i = 0; i < inputsCount; i++) {
+                    int stackItemsCount = cursor.readLength(1);
+                    hasWitnessItems |= stackItemsCount > 0;
+                    for (int j = stackItemsCount; j > 0; j--) {
+                        cursor.skip(cursor.readLength(1));
+                    }
+                }
+            }
+            witnessStarts = null;
+            itemOffsets = itemLengths = null;
+        }
+        if (canonical && withWitness && !hasWitnessItems) {
+            throw new BitcoinException(BitcoinException.ERR_BAD_FORMAT, "Witness marker without witnesses");
+        }
+        lockTime = cursor.readInt32();
+        end = cursor.position();
+    }
+
+    /**
+     * @return txid in the usual (reversed) byte order, hashed from the original bytes without the witness data
+     */
+    public byte[] hash() {
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        hash(hash, 0);
+        return BTCUtils.reverseInPlace(hash);
+    }
+
+    /**
+     * Writes txid in the internal byte order, as it's used in merkle trees and outpoints.
+     */
+    void hash(byte[] out, int outOffset) {
+        MessageDigest sha256 = Digests.sha256();
+        if (witness) {
+            cursor.update(sha256, start, 4);
+            cursor.update(sha256, inputsStart, outputsEnd - inputsStart);
+            cursor.update(sha256, end - 4, 4);
+        } else {
+            cursor.update(sha256, start, end - start);
+        }
+        Digests.finishDoubleSha256(sha256, out, outOffset);
+    }
+
+    public int getInputsCount() {
+        return inputsCount;
+    }
+
+    public int getOutputsCount() {
+        return outputs.length / 3;
+    }
+
+    public boolean hasWitness() {
+        return witness;
+    }
+
+    /**
+     * @return hash of the spent transaction in the usual (reversed) byte order
+     */
+    public byte[] getOutPointHash(int inputIndex) {
+        requireInputs();
+        return cursor.copyReversed(inputs[inputIndex * 3], 32);
+    }
+
+    public int getOutPointIndex(int inputIndex) {
+        requireInputs();
+        return cursor.buffer().getInt(inputs[inputIndex * 3] + 32);
+    }
+
+    public byte[] getInputScript(int inputIndex) {
+        requireInputs();
+        return cursor.copy(inputs[inputIndex * 3 + 1], inputs[inputIndex * 3 + 2]);
+    }
+
+    public int getSequence(int inputIndex) {
+        requireInputs();
+        return cursor.buffer().getInt(inputs[inputIndex * 3 + 1] + inputs[inputIndex * 3 + 2]);
+    }
+
+    public long getOutputValue(int outputIndex) {
+        return cursor.buffer().getLong(outputs[outputIndex * 3]);
+    }
+
+    public byte[] getOutputScript(int outputIndex) {
+        return cursor.copy(outputs[outputIndex * 3 + 1], outputs[outputIndex * 3 + 2]);
+    }
+
+    /**
+     * Compares the output script with the given one without copying it.
+     */
+    public boolean outputScriptEquals(int outputIndex, byte[] script) {
+        return outputs[outputIndex * 3 + 2] == script.length && cursor.equals(outputs[outputIndex * 3 + 1], script);
+    }
+
+    public int getWitnessItemsCount(int inputIndex) {
+        requireInputs();
+        return witness ? witnessStarts[inputIndex + 1] - witnessStarts[inputIndex] : 0;
+    }
+
+    public byte[] getWitnessItem(int inputIndex, int itemIndex) {
+        requireInputs();
+        int item = witnessStarts[inputIndex] + itemIndex;
+        if (itemIndex < 0 || item >= witnessStarts[inputIndex + 1]) {
+            throw new IndexOutOfBoundsException("Input " + inputIndex + " has no witness item " + itemIndex);
+        }
+        return cursor.copy(itemOffsets[item], itemLengths[item]);
+    }
+
+    /**
+     * Copies everything into a regular transaction.
+     */
+    public Transaction toTransaction() {
+        requireInputs();
+        return new Transaction(this);
+    }
+
+    private void requireInputs() {
+        if (inputs == null) {
+            throw new IllegalStateException("Inputs were skipped");
+        }
+    }
+}
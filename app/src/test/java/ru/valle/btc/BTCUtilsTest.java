@@ -101,6 +101,53 @@ public class BTCUtilsTest extends TestCase {
         assertTrue(Arrays.equals(BTCUtils.fromHex("032596957532fc37e40486b910802ff45eeaa924548c0e1c080ef804e523ec3ed3"), publicKeyCompressed));
     }
 
+    public void testGeneratePublicKeysInBatch() throws Exception {
+        final int count = 1000;
+        final BigInteger[] privateKeys = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            privateKeys[i] = new BigInteger(1, BTCUtils.sha256(BigInteger.valueOf(i).toByteArray()));
+        }
+        privateKeys[0] = privateKey;
+        byte[][] compressed = BTCUtils.generatePublicKeys(privateKeys, true);
+        byte[][] uncompressed = BTCUtils.generatePublicKeys(privateKeys, false);
+        assertTrue(Arrays.equals(BTCUtils.fromHex("034f355bdcb7cc0af728ef3cceb9615d90684bb5b2ca5f859ab0f0b704075871aa"), compressed[0]));
+        for (int i = 0; i < count; i++) {
+            assertTrue(Arrays.equals(BTCUtils.generatePublicKey(privateKeys[i], true), compressed[i]));
+            assertTrue(Arrays.equals(BTCUtils.generatePublicKey(privateKeys[i], false), uncompressed[i]));
+        }
+        assertEquals(0, BTCUtils.generatePublicKeys(new BigInteger[0], true).length);
+
+        long start = System.nanoTime();
+        for (BigInteger key : privateKeys) {
+            BTCUtils.generatePublicKey(key, true);
+        }
+        long oneByOneTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        BTCUtils.generatePublicKeys(privateKeys, true);
+        long batchTime = System.nanoTime() - start;
+        Log.i("testGeneratePublicKeysInBatch", count + " public keys: one by one " + oneByOneTime / 1000_000 +
+                "ms, in batch " + batchTime / 1000_000 + "ms");
+
+        //disjoint batches from several threads
+        Thread[] threads = new Thread[4];
+        final byte[][][] results = new byte[threads.length][][];
+        for (int t = 0; t < threads.length; t++) {
+            final int batch = t;
+            threads[t] = new Thread(() -> {
+                BigInteger[] batchKeys = new BigInteger[count / threads.length];
+                System.arraycopy(privateKeys, batch * batchKeys.length, batchKeys, 0, batchKeys.length);
+                results[batch] = BTCUtils.generatePublicKeys(batchKeys, true);
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            threads[t].join();
+            for (int i = 0; i < results[t].length; i++) {
+                assertTrue(Arrays.equals(compressed[t * results[t].length + i], results[t][i]));
+            }
+        }
+    }
+
     public void testDoubleSha256() throws Exception {
         byte[] helloBytes = "hello".getBytes("UTF-8");
         byte[] hashed = BTCUtils.doubleSha256(helloBytes);
@@ -0,0 +1,177 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Base58Test extends TestCase {
+    private static final int[] PAYLOAD_SIZES = {21, 25, 37, 38, 39, 43, 53, 55};
+
+    public void testMatchesBigIntegerCodec() {
+        Random random = new Random(58);
+        for (int length = 0; length < 100; length++) {
+            for (int i = 0; i < 20; i++) {
+                byte[] input = new byte[length];
+                random.nextBytes(input);
+                for (int j = random.nextInt(4); j > 0 && j <= length; j--) {
+                    input[j - 1] = 0;
+                }
+                String expected = referenceEncode(input);
+                assertEquals(expected, BTCUtils.encodeBase58(input));
+                assertTrue(expected, Arrays.equals(input, BTCUtils.decodeBase58(expected)));
+            }
+        }
+        byte[] max = new byte[40];
+        Arrays.fill(max, (byte) 0xff);
+        assertEquals(referenceEncode(max), BTCUtils.encodeBase58(max));
+        assertTrue(Arrays.equals(max, BTCUtils.decodeBase58(referenceEncode(max))));
+    }
+
+    public void testDecodeRejectsInvalidCharacters() {
+        assertTrue(Arrays.equals(new byte[]{0, 0, 0x39}, BTCUtils.decodeBase58(" 11z \n")));
+        assertTrue(Arrays.equals(new byte[0], BTCUtils.decodeBase58("   ")));
+        assertNull(BTCUtils.decodeBase58("1z 1"));
+        assertNull(BTCUtils.decodeBase58("10"));
+        assertNull(BTCUtils.decodeBase58("1I"));
+        assertNull(BTCUtils.decodeBase58("zı"));//the low byte of this character is '1'
+    }
+
+    public void testDecodeChecked() {
+        Base58.Checked decoded = Base58.decodeChecked(" 16UwLL9Risc3QfPqBUvKofHmBQ7wMtjvM ");
+        assertNotNull(decoded);
+        assertEquals(0, decoded.version());
+        assertEquals(20, decoded.payloadLength);
+        assertEquals("010966776006953d5567439e5e39f86a0d273bee", BTCUtils.toHex(decoded.copyPayload(0, 20)));
+        assertEquals((byte) 0xee, decoded.payloadByte(19));
+        try {
+            decoded.copyPayload(1, 20);
+            fail("checksum was copied as the payload");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        assertNull(Base58.decodeChecked("16UwLL9Risc3QfPqBUvKofHmBQ7wMtjvN"));
+        assertNull(Base58.decodeChecked("16UwLL9Risc3QfPqBUvKofHmBQ7wMtjv0"));
+        assertNull(Base58.decodeChecked(BTCUtils.encodeBase58(BTCUtils.fromHex("0001020304"))));
+        assertNull(Base58.decodeChecked(null));
+
+        decoded = Base58.decodeChecked("5HueCGU8rMjxEXxiPuD5BDku4MkFqeZyd4dZ1jvhTVqvbTLvyTJ");
+        assertNotNull(decoded);
+        assertEquals(0x80, decoded.version());
+        assertEquals(32, decoded.payloadLength);
+    }
+
+    public void testWriteAddresses() throws Exception {
+        Random random = new Random(25);
+        int count = 1000;//more than one buffer of the writer
+        byte[] hashes = new byte[7 + count * 20];
+        random.nextBytes(hashes);
+        StringWriter writer = new StringWriter();
+        Address.writeAddresses(Address.TYPE_P2SH, hashes, 7, count, ',', writer);
+        String[] addresses = writer.toString().split(",", -1);
+        assertEquals(count + 1, addresses.length);
+        for (int i = 0; i < count; i++) {
+            byte[] hash = Arrays.copyOfRange(hashes, 7 + i * 20, 7 + i * 20 + 20);
+            assertEquals(Address.ripemd160HashToP2shAddress(false, hash), addresses[i]);
+        }
+        assertEquals("", addresses[count]);
+
+        char[] out = new char[Base58.maxEncodedLength(3) + 2];
+        assertEquals(3, Base58.encode(new byte[]{0, 0, 0x39}, 0, 3, out, 2));
+        assertEquals("11z", new String(out, 2, 3));
+    }
+
+    public void testWriteWifKeys() throws Exception {
+        Random random = new Random(26);
+        int count = 500;//more than one buffer of the writer
+        byte[] secrets = new byte[3 + count * 32];
+        random.nextBytes(secrets);
+        for (boolean compressed : new boolean[]{false, true}) {
+            StringWriter writer = new StringWriter();
+            BTCUtils.writeWifKeys(compressed, secrets, 3, count, true, '\n', writer);
+            String[] keys = writer.toString().split("\n", -1);
+            assertEquals(count + 1, keys.length);
+            for (int i = 0; i < count; i++) {
+                byte[] secret = Arrays.copyOfRange(secrets, 3 + i * 32, 3 + i * 32 + 32);
+                assertEquals(BTCUtils.encodeWifKey(compressed, secret, true), keys[i]);
+            }
+            assertEquals("", keys[count]);
+        }
+    }
+
+    public void testBenchmark() {
+        Random random = new Random(1);
+        byte[][] payloads = new byte[64][];
+        String[] encoded = new String[payloads.length];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = new byte[PAYLOAD_SIZES[i % PAYLOAD_SIZES.length]];
+            random.nextBytes(payloads[i]);
+            encoded[i] = referenceEncode(payloads[i]);
+        }
+        final int count = 50000;
+        for (int i = 0; i < 10000; i++) {
+            referenceEncode(payloads[i & 63]);
+            BTCUtils.encodeBase58(payloads[i & 63]);
+            BTCUtils.decodeBase58(encoded[i & 63]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            referenceEncode(payloads[i & 63]);
+        }
+        long referenceTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            BTCUtils.encodeBase58(payloads[i & 63]);
+        }
+        long encodeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            BTCUtils.decodeBase58(encoded[i & 63]);
+        }
+        long decodeTime = System.nanoTime() - start;
+        Log.i("Base58Test", count + " payloads: BigInteger encode " + referenceTime / 1000_000 + "ms, limb encode " +
+                encodeTime / 1000_000 + "ms, limb decode " + decodeTime / 1000_000 + "ms");
+    }
+
+    private static String referenceEncode(byte[] input) {
+        StringBuilder sb = new StringBuilder();
+        BigInteger number = new BigInteger(1, input);
+        BigInteger base = BigInteger.valueOf(58);
+        while (number.signum() > 0) {
+            BigInteger[] divideAndRemainder = number.divideAndRemainder(base);
+            sb.append(Base58.ALPHABET[divideAndRemainder[1].intValue()]);
+            number = divideAndRemainder[0];
+        }
+        for (int i = 0; i < input.length && input[i] == 0; i++) {
+            sb.append(Base58.ALPHABET[0]);
+        }
+        return sb.reverse().toString();
+    }
+}
@@ -2,8 +2,10 @@ package ru.valle.btc;
 
 import junit.framework.TestCase;
 
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.Random;
 
 public class Bech32Test extends TestCase {
     public void testValidChecksum() throws Exception {
@@ -130,8 +132,63 @@ public class Bech32Test extends TestCase {
         assertEquals("bc1pqqqsq9txsp", Bech32.encodeSegwitAddress("bc", 1, new byte[]{0, 1}));
     }
 
+    public void testSegwitEncoder() throws Exception {
+        Random random = new Random(32);
+        char[] out = new char[100];
+        for (String hrp : new String[]{"bc", "TC", "an83characterlonghumanreadablepart"}) {
+            for (int version = 0; version <= 16; version++) {
+                Bech32.SegwitEncoder encoder = new Bech32.SegwitEncoder(hrp, version);
+                for (int length = 2; length <= 40; length++) {
+                    byte[] program = new byte[length + 3];
+                    random.nextBytes(program);
+                    String expected;
+                    try {
+                        expected = Bech32.encodeSegwitAddress(hrp, version, Arrays.copyOfRange(program, 3, program.length));
+                    } catch (BitcoinException e) {
+                        expected = null;
+                    }
+                    try {
+                        int written = encoder.encode(program, 3, length, out, 5);
+                        assertTrue(written <= encoder.maxEncodedLength(length));
+                        assertEquals(expected, new String(out, 5, written));
+                    } catch (BitcoinException e) {
+                        assertNull(expected);
+                    }
+                }
+            }
+        }
+        try {
+            new Bech32.SegwitEncoder("Bc", 0);
+            fail("mixed case hrp was accepted");
+        } catch (BitcoinException expected) {
+        }
+    }
+
+    public void testWriteSegwitAddresses() throws Exception {
+        byte[] programs = new byte[3 * 20];
+        new Random(20).nextBytes(programs);
+        StringWriter writer = new StringWriter();
+        Address.writeSegwitAddresses(false, 0, programs, 0, 20, 3, '\n', writer);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            expected.append(Bech32.encodeSegwitAddress("bc", 0, Arrays.copyOfRange(programs, i * 20, i * 20 + 20))).append('\n');
+        }
+        assertEquals(expected.toString(), writer.toString());
+    }
+
     public void testDecode() throws BitcoinException {
         assertTrue(Arrays.equals(new byte[]{0, 1}, Bech32.decodeSegwitAddress("bc", "bc1pqqqsq9txsp").program));
+        assertTrue(Arrays.equals(new byte[]{0, 1}, Bech32.decodeSegwitAddress("bc", "BC1PQQQSQ9TXSP").program));
+        Bech32.DecodeResult decoded = Bech32.decode("A12UEL5L");
+        assertEquals("a", decoded.dechrp);
+        assertEquals(0, decoded.data.length);
+        for (String mixedCase : new String[]{"a12UEL5L", "A12uel5l", "bc1pqqqsq9txSp"}) {
+            try {
+                Bech32.decode(mixedCase);
+                fail("mixed case was accepted: " + mixedCase);
+            } catch (BitcoinException expected) {
+            }
+        }
     }
 
     public void testErrorCases() throws BitcoinException {
@@ -0,0 +1,266 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BlockTest extends TestCase {
+    private static final String GENESIS_BLOCK = "01000000" +
+            "0000000000000000000000000000000000000000000000000000000000000000" +
+            "3ba3edfd7a7b12b27ac72c3e67768f617fc81bc3888a51323a9fb8aa4b1e5e4a" +
+            "29ab5f49ffff001d1dac2b7c" +
+            "01" +
+            "01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff4d04ffff001d0104455468652054" +
+            "696d65732030332f4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b206f66207365636f6e64206261696c6f7574" +
+            "20666f722062616e6b73ffffffff0100f2052a01000000434104678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61" +
+            "deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac00000000";
+
+    public void testGenesisBlock() throws Exception {
+        Block block = Block.decode(BTCUtils.fromHex(GENESIS_BLOCK));
+        assertEquals("000000000019d6689c085ae165831e934ff763ae46a2a6c172b3f1b60a8ce26f", BTCUtils.toHex(block.hash()));
+        assertEquals(1, block.version);
+        assertEquals(1231006505, block.time);
+        assertEquals(0x1d00ffff, block.bits);
+        assertEquals(2083236893, block.nonce);
+        assertEquals(1, block.transactions.length);
+        assertTrue(block.transactions[0].isCoinBase());
+        assertEquals("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b", BTCUtils.toHex(block.getTxid(0)));
+        assertTrue(Arrays.equals(block.merkleRoot, block.getComputedMerkleRoot()));
+        assertTrue(block.isMerkleRootValid());
+    }
+
+    public void testMerkleRoot() throws Exception {
+        List<byte[]> transactions = loadDistinctTransactions();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int count : new int[]{2, 3, 7, 64, 1001}) {
+                List<byte[]> blockTransactions = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    blockTransactions.add(transactions.get(i % transactions.size()));
+                }
+                byte[] rawBlock = buildBlock(blockTransactions);
+                Block block = Block.decode(rawBlock);
+                assertTrue(block.isMerkleRootValid());
+                assertEquals(count, block.transactions.length);
+                for (int i = 0; i < count; i++) {
+                    byte[] rawTx = blockTransactions.get(i);
+                    assertTrue(Arrays.equals(TransactionView.parse(ByteBuffer.wrap(rawTx)).hash(), block.getTxid(i)));
+                    assertEquals(Transaction.decodeTransaction(rawTx).outputs.length, block.transactions[i].outputs.length);
+                }
+                Block parallel = Block.decode(ByteBuffer.wrap(rawBlock), executor);
+                assertTrue(parallel.isMerkleRootValid());
+                for (int i = 0; i < count; i++) {
+                    assertTrue(Arrays.equals(block.getTxid(i), parallel.getTxid(i)));
+                }
+                //the merkle root doesn't match after transactions are swapped
+                if (!Arrays.equals(blockTransactions.get(0), blockTransactions.get(1))) {
+                    blockTransactions.add(0, blockTransactions.remove(1));
+                    byte[] swapped = buildBlock(blockTransactions);
+                    System.arraycopy(rawBlock, 36, swapped, 36, 32);
+                    assertFalse(Block.decode(swapped).isMerkleRootValid());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testMutatedMerkleRoot() throws Exception {
+        List<byte[]> transactions = new ArrayList<>(loadDistinctTransactions().subList(0, 6));
+        byte[] rawBlock = buildBlock(transactions);
+        Block block = Block.decode(rawBlock);
+        assertFalse(block.isMutated());
+        assertTrue(block.isMerkleRootValid());
+        //repeating the last pair of transactions keeps the merkle root
+        transactions.add(transactions.get(4));
+        transactions.add(transactions.get(5));
+        byte[] mutatedBlock = buildBlock(transactions);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(rawBlock, 36, 68), Arrays.copyOfRange(mutatedBlock, 36, 68)));
+        for (Block mutated : new Block[]{Block.decode(mutatedBlock), Block.decode(ByteBuffer.wrap(mutatedBlock), Runnable::run)}) {
+            assertTrue(Arrays.equals(block.getComputedMerkleRoot(), mutated.getComputedMerkleRoot()));
+            assertTrue(mutated.isMutated());
+            assertFalse(mutated.isMerkleRootValid());
+        }
+    }
+
+    public void testExecutors() throws Exception {
+        List<byte[]> transactions = loadDistinctTransactions();
+        List<byte[]> blockTransactions = new ArrayList<>();
+        for (int i = 0; i < 1001; i++) {
+            blockTransactions.add(transactions.get(i % transactions.size()));
+        }
+        byte[] rawBlock = buildBlock(blockTransactions);
+        final AtomicInteger submitted = new AtomicInteger();
+        Block block = Block.decode(ByteBuffer.wrap(rawBlock), command -> {
+            submitted.incrementAndGet();
+            command.run();
+        });
+        assertTrue(block.isMerkleRootValid());
+        //one worker per processor at most for each of the transactions and the lowest merkle level
+        assertTrue(submitted.get() <= 2 * Runtime.getRuntime().availableProcessors());
+        //an executor which takes one worker and rejects the rest
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final AtomicInteger accepted = new AtomicInteger();
+            block = Block.decode(ByteBuffer.wrap(rawBlock), command -> {
+                if (accepted.getAndIncrement() > 0) {
+                    throw new RejectedExecutionException();
+                }
+                executor.execute(command);
+            });
+            assertTrue(block.isMerkleRootValid());
+            executor.shutdown();
+            //a shut down executor rejects everything
+            assertTrue(Block.decode(ByteBuffer.wrap(rawBlock), executor).isMerkleRootValid());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testMalformedBlocks() throws Exception {
+        byte[] genesis = BTCUtils.fromHex(GENESIS_BLOCK);
+        assertMalformed(Arrays.copyOf(genesis, genesis.length - 1));
+        assertMalformed(Arrays.copyOf(genesis, genesis.length + 1));
+        byte[] empty = Arrays.copyOf(genesis, Block.HEADER_SIZE + 1);
+        empty[Block.HEADER_SIZE] = 0;
+        assertMalformed(empty);
+        assertMalformed(Arrays.copyOf(genesis, Block.HEADER_SIZE - 1));
+    }
+
+    public void testReadFromFile() throws Exception {
+        List<byte[]> transactions = loadDistinctTransactions();
+        File file = File.createTempFile("blocks", ".dat");
+        try {
+            try (OutputStream out = new FileOutputStream(file)) {
+                BlockFiles.writeRecord(out, TransactionFileReader.MAINNET_MAGIC, BTCUtils.fromHex(GENESIS_BLOCK));
+                BlockFiles.writeRecord(out, TransactionFileReader.MAINNET_MAGIC, buildBlock(transactions));
+            }
+            try (TransactionFileReader reader = TransactionFileReader.openBlocks(file, TransactionFileReader.MAINNET_MAGIC)) {
+                assertNotNull(reader.next());
+                Block block = reader.nextBlock(null);
+                assertNotNull(block);
+                assertEquals(transactions.size(), block.transactions.length);
+                assertTrue(block.isMerkleRootValid());
+                assertNull(reader.nextBlock(null));
+            }
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    public void testBenchmark() throws Exception {
+        List<byte[]> transactions = loadDistinctTransactions();
+        List<byte[]> blockTransactions = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            blockTransactions.add(transactions.get(i % transactions.size()));
+        }
+        byte[] rawBlock = buildBlock(blockTransactions);
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < 3; i++) {
+                Block.decode(rawBlock);
+                Block.decode(ByteBuffer.wrap(rawBlock), executor);
+            }
+            Log.i("BlockTest", rawBlock.length + " bytes block, " + blockTransactions.size() + " transactions, single thread: " +
+                    Block.decode(rawBlock).timings);
+            Log.i("BlockTest", rawBlock.length + " bytes block, " + blockTransactions.size() + " transactions, " +
+                    (threads + 1) + " threads: " + Block.decode(ByteBuffer.wrap(rawBlock), executor).timings);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertMalformed(byte[] rawBlock) {
+        try {
+            Block.decode(rawBlock);
+            fail("malformed block was decoded");
+        } catch (BitcoinException expected) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+        }
+    }
+
+    /**
+     * @return block with the merkle root built by the straightforward algorithm
+     */
+    /**
+     * Equal sibling transactions would make a block mutated, so repeated test vectors are dropped
+     */
+    private static List<byte[]> loadDistinctTransactions() throws Exception {
+        List<byte[]> transactions = new ArrayList<>();
+        Set<String> txids = new HashSet<>();
+        for (byte[] rawTx : TransactionViewTest.loadValidTransactions()) {
+            if (txids.add(BTCUtils.toHex(TransactionView.parse(ByteBuffer.wrap(rawTx)).hash()))) {
+                transactions.add(rawTx);
+            }
+        }
+        return transactions;
+    }
+
+    private static byte[] buildBlock(List<byte[]> transactions) throws BitcoinException {
+        List<byte[]> level = new ArrayList<>();
+        for (byte[] rawTx : transactions) {
+            level.add(BTCUtils.reverseInPlace(TransactionView.parse(ByteBuffer.wrap(rawTx)).hash()));
+        }
+        while (level.size() > 1) {
+            List<byte[]> parents = new ArrayList<>();
+            for (int i = 0; i < level.size(); i += 2) {
+                byte[] pair = new byte[64];
+                System.arraycopy(level.get(i), 0, pair, 0, 32);
+                System.arraycopy(level.get(Math.min(i + 1, level.size() - 1)), 0, pair, 32, 32);
+                parents.add(BTCUtils.doubleSha256(pair));
+            }
+            level = parents;
+        }
+        BitcoinOutputStream block = new BitcoinOutputStream();
+        block.writeInt32(2);
+        block.write(new byte[32], 0, 32);
+        block.write(level.get(0), 0, 32);
+        block.writeInt32(1231006505);
+        block.writeInt32(0x1d00ffff);
+        block.writeInt32(0);
+        block.writeVarInt(transactions.size());
+        for (byte[] rawTx : transactions) {
+            block.write(rawTx, 0, rawTx.length);
+        }
+        return block.toByteArray();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+package ru.valle.btc;
+
+import junit.framework.TestCase;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DERSignatureTest extends TestCase {
+    private static final String SIGNATURE = "3045022100934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d802202442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5";
+    private static final int[] R = Secp256k1Scalar.fromBigInteger(new BigInteger("934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d8", 16));
+    private static final int[] S = Secp256k1Scalar.fromBigInteger(new BigInteger("2442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5", 16));
+
+    public void testEncode() {
+        assertEquals(SIGNATURE, BTCUtils.toHex(DERSignature.encode(R, S)));
+        assertEquals("3006020101020101", BTCUtils.toHex(DERSignature.encode(Secp256k1Scalar.fromBigInteger(BigInteger.ONE), Secp256k1Scalar.fromBigInteger(BigInteger.ONE))));
+        int[] largest = Secp256k1Scalar.fromBigInteger(BTCUtils.LARGEST_PRIVATE_KEY.subtract(BigInteger.ONE));
+        byte[] encoded = DERSignature.encode(largest, largest);
+        assertEquals(DERSignature.MAX_LENGTH, encoded.length);
+        assertTrue(DERSignature.isValidEncoding(encoded, encoded.length));
+        byte[] buffer = new byte[DERSignature.MAX_LENGTH + 2];
+        assertEquals(71, DERSignature.encode(R, S, buffer, 2));
+        assertEquals(SIGNATURE, BTCUtils.toHex(Arrays.copyOfRange(buffer, 2, 73)));
+        try {
+            DERSignature.encode(new int[Secp256k1Scalar.LIMBS], S);
+            fail("zero r was encoded");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testStrictParse() {
+        byte[] signature = BTCUtils.fromHex(SIGNATURE);
+        int[][] rs = DERSignature.parse(signature, signature.length, true);
+        assertNotNull(rs);
+        assertTrue(Arrays.equals(R, rs[0]));
+        assertTrue(Arrays.equals(S, rs[1]));
+
+        byte[] signatureAndHashType = Arrays.copyOf(signature, signature.length + 1);
+        signatureAndHashType[signature.length] = 1;
+        rs = DERSignature.parse(signatureAndHashType, signature.length, true);
+        assertNotNull(rs);
+        assertTrue(Arrays.equals(S, rs[1]));
+        assertNull(DERSignature.parse(signatureAndHashType, signatureAndHashType.length, true));
+
+        //excessive padding of s
+        byte[] padded = BTCUtils.fromHex("3046022100934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d80221002442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5");
+        assertNull(DERSignature.parse(padded, padded.length, true));
+        rs = DERSignature.parse(padded, padded.length, false);
+        assertNotNull(rs);
+        assertTrue(Arrays.equals(R, rs[0]));
+        assertTrue(Arrays.equals(S, rs[1]));
+    }
+
+    public void testLaxParse() {
+        //BER long form lengths of the sequence and of r
+        byte[] ber = BTCUtils.fromHex("308146028121" + "00934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d8" +
+                "02202442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5" + "deadbeef");
+        assertFalse(DERSignature.isValidEncoding(ber, ber.length));
+        int[][] rs = DERSignature.parse(ber, ber.length, false);
+        assertNotNull(rs);
+        assertTrue(Arrays.equals(R, rs[0]));
+        assertTrue(Arrays.equals(S, rs[1]));
+        //r is longer than 256 bits
+        byte[] overflow = BTCUtils.fromHex("3027022201934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d8020101");
+        assertNull(DERSignature.parse(overflow, overflow.length, false));
+        //s is cut
+        byte[] cut = BTCUtils.fromHex("3006020101020201");
+        assertNull(DERSignature.parse(cut, cut.length, false));
+        assertNull(DERSignature.parse(new byte[0], 0, false));
+    }
+
+    public void testGarbageDoesNotThrow() {
+        Random random = new Random(66);
+        byte[] signature = BTCUtils.fromHex(SIGNATURE);
+        for (int i = 0; i < 100000; i++) {
+            byte[] mutated = signature.clone();
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                mutated[random.nextInt(mutated.length)] = (byte) random.nextInt();
+            }
+            int length = random.nextInt(mutated.length + 1);
+            DERSignature.parse(mutated, length, true);
+            DERSignature.parse(mutated, length, false);
+        }
+    }
+
+    public void testVerifyLaxSignature() {
+        BigInteger privateKey = BigInteger.ONE;
+        byte[] hash = BTCUtils.sha256("Satoshi Nakamoto".getBytes());
+        byte[] publicKey = BTCUtils.generatePublicKey(privateKey, true);
+        byte[] padded = BTCUtils.fromHex("3046022100934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d80221002442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5");
+        assertTrue(BTCUtils.verify(publicKey, padded, hash));
+        assertFalse(BTCUtils.verify(publicKey, BTCUtils.fromHex("3006020101020201"), hash));
+    }
+}
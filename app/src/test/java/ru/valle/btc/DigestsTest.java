@@ -0,0 +1,111 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import junit.framework.TestCase;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+public class DigestsTest extends TestCase {
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+    private static final String ABC_DOUBLE_SHA256 = "4f8b42c22dd3729b519ba6f68d2da7cc5b2d606d05daed5ad5128cc03e6c6358";
+
+    public void testSlicesAndOffsets() {
+        byte[] input = "xxabcyy".getBytes();
+        byte[] out = new byte[Digests.SHA256_LENGTH + 3];
+        Digests.sha256(input, 2, 3, out, 3);
+        assertEquals(ABC_SHA256, BTCUtils.toHex(Arrays.copyOfRange(out, 3, out.length)));
+        Digests.doubleSha256(input, 2, 3, out, 3);
+        assertEquals(ABC_DOUBLE_SHA256, BTCUtils.toHex(Arrays.copyOfRange(out, 3, out.length)));
+        assertEquals(ABC_SHA256, BTCUtils.toHex(BTCUtils.sha256("abc".getBytes())));
+        assertEquals(ABC_DOUBLE_SHA256, BTCUtils.toHex(BTCUtils.doubleSha256("abc".getBytes())));
+
+        MessageDigest sha256 = Digests.sha256();
+        sha256.update("a".getBytes());
+        sha256.update("bc".getBytes());
+        byte[] hash = new byte[Digests.SHA256_LENGTH];
+        Digests.finishDoubleSha256(sha256, hash, 0);
+        assertEquals(ABC_DOUBLE_SHA256, BTCUtils.toHex(hash));
+    }
+
+    public void testHash160() {
+        //public key of the private key 1
+        byte[] publicKey = BTCUtils.fromHex("0279be667ef9dcbbac55a06295ce870b07029bfcdb2dce28d959f2815b16f81798");
+        byte[] padded = new byte[publicKey.length + 2];
+        System.arraycopy(publicKey, 0, padded, 1, publicKey.length);
+        byte[] out = new byte[Digests.RIPEMD160_LENGTH + 1];
+        Digests.sha256ripemd160(padded, 1, publicKey.length, out, 1);
+        assertEquals("751e76e8199196d454941c45d1b3a323f1433bd6", BTCUtils.toHex(Arrays.copyOfRange(out, 1, out.length)));
+        assertEquals("751e76e8199196d454941c45d1b3a323f1433bd6", BTCUtils.toHex(BTCUtils.sha256ripemd160(publicKey)));
+    }
+
+    public void testChecksum() {
+        byte[] bytes = new byte[25];
+        bytes[5] = 42;
+        Digests.writeChecksum(bytes);
+        assertTrue(Digests.checksumMatches(bytes));
+        assertTrue(BTCUtils.verifyDoubleSha256Checksum(bytes));
+        assertTrue(Arrays.equals(Arrays.copyOf(BTCUtils.doubleSha256(Arrays.copyOf(bytes, 21)), 4), Arrays.copyOfRange(bytes, 21, 25)));
+        bytes[24] ^= 1;
+        assertFalse(Digests.checksumMatches(bytes));
+        assertFalse(BTCUtils.verifyDoubleSha256Checksum(new byte[4]));
+    }
+
+    public void testBatches() {
+        Random random = new Random(256);
+        int count = 37;
+        int[] offsets = new int[count];
+        int[] lengths = new int[count];
+        byte[] data = new byte[count * 200];
+        random.nextBytes(data);
+        for (int i = 0; i < count; i++) {
+            offsets[i] = random.nextInt(data.length - 200);
+            lengths[i] = random.nextInt(200);
+        }
+        byte[] out = new byte[3 + count * Digests.SHA256_LENGTH];
+        byte[] expected = new byte[Digests.SHA256_LENGTH];
+        Digests.sha256(data, offsets, lengths, count, out, 3);
+        for (int i = 0; i < count; i++) {
+            Digests.sha256(data, offsets[i], lengths[i], expected, 0);
+            assertTrue("message " + i, Arrays.equals(expected, Arrays.copyOfRange(out, 3 + i * 32, 3 + i * 32 + 32)));
+        }
+        Digests.doubleSha256(data, offsets, lengths, count, out, 3);
+        for (int i = 0; i < count; i++) {
+            Digests.doubleSha256(data, offsets[i], lengths[i], expected, 0);
+            assertTrue("message " + i, Arrays.equals(expected, Arrays.copyOfRange(out, 3 + i * 32, 3 + i * 32 + 32)));
+        }
+    }
+
+    public void testMiniKeyGeneration() {
+        for (int i = 0; i < 3; i++) {
+            KeyPair keyPair = BTCUtils.generateMiniKey(Address.PUBLIC_KEY_TO_ADDRESS_LEGACY);
+            assertNotNull(keyPair);
+            assertEquals(30, keyPair.privateKey.privateKeyEncoded.length());
+            assertEquals(0, BTCUtils.sha256((keyPair.privateKey.privateKeyEncoded + '?').getBytes())[0]);
+        }
+    }
+}
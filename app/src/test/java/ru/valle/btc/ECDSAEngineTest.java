@@ -0,0 +1,156 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+package ru.valle.btc;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ECDSAEngineTest extends TestCase {
+    private static final int OPERATIONS_PER_THREAD = 200;
+
+    public void testSignAndVerify() {
+        BigInteger privateKey = new BigInteger(1, BTCUtils.fromHex("1111111111111111111111111111111111111111111111111111111111111111"));
+        byte[] publicKey = BTCUtils.generatePublicKey(privateKey, true);
+        byte[] hash = BTCUtils.sha256("hello".getBytes());
+        byte[] signature = BTCUtils.sign(privateKey, hash);
+        assertTrue(BTCUtils.verify(publicKey, signature, hash));
+        hash[0] ^= 1;
+        assertFalse(BTCUtils.verify(publicKey, signature, hash));
+    }
+
+    public void testRandomNoncesInThreads() throws Exception {
+        final BigInteger privateKey = BigInteger.TEN;
+        final byte[] hash = BTCUtils.sha256("hello".getBytes());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<byte[]>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                tasks.add(() -> BTCUtils.sign(privateKey, hash, BTCUtils.NONCE_RANDOM));
+            }
+            List<String> signatures = new ArrayList<>();
+            for (Future<byte[]> result : executor.invokeAll(tasks)) {
+                assertTrue(BTCUtils.verify(BTCUtils.generatePublicKey(privateKey, true), result.get(), hash));
+                String signature = BTCUtils.toHex(result.get());
+                assertFalse("threads drew the same nonce", signatures.contains(signature));
+                signatures.add(signature);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testDeterministicNonce() {
+        BigInteger privateKey = BigInteger.ONE;
+        byte[] hash = BTCUtils.sha256("Satoshi Nakamoto".getBytes());
+        byte[] signature = BTCUtils.sign(privateKey, hash, BTCUtils.NONCE_DETERMINISTIC);
+        assertEquals("3045022100934b1ea10a4b3c1757e2b0c017d0b6143ce3c9a7e6a4a49860d7a6ab210ee3d802202442ce9d2b916064108014783e923ec36b49743e2ffa1c4496f01a512aafd9e5",
+                BTCUtils.toHex(signature));
+        assertTrue(BTCUtils.verify(BTCUtils.generatePublicKey(privateKey, true), signature, hash));
+        assertFalse(Arrays.equals(BTCUtils.sign(privateKey, hash, BTCUtils.NONCE_RANDOM), BTCUtils.sign(privateKey, hash, BTCUtils.NONCE_RANDOM)));
+
+        assertEquals(BTCUtils.NONCE_RANDOM, BTCUtils.getDefaultNonceType());
+        try {
+            BTCUtils.setDefaultNonceType(BTCUtils.NONCE_DETERMINISTIC);
+            assertTrue(Arrays.equals(signature, BTCUtils.sign(privateKey, hash)));
+        } finally {
+            BTCUtils.setDefaultNonceType(BTCUtils.NONCE_RANDOM);
+        }
+    }
+
+    public void testDeterministicTransactionSigning() throws Exception {
+        KeyPair keyPair = new KeyPair(BTCUtils.decodePrivateKey("L49guLBaJw8VSLnKGnMKVH5GjxTrkK4PBGc425yYwLqnU5cGpyxJ"), Address.PUBLIC_KEY_TO_ADDRESS_LEGACY);
+        assertNotNull(keyPair.address);
+        Transaction.Script scriptPubKey = Transaction.Script.buildOutput(keyPair.address.addressString);
+        List<UnspentOutputInfo> unspentOutputs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            unspentOutputs.add(new UnspentOutputInfo(keyPair, BTCUtils.sha256(new byte[]{(byte) i}), scriptPubKey, 100_000, i));
+        }
+        Transaction.Input[] inputs = new Transaction.Input[unspentOutputs.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new Transaction.Input(new Transaction.OutPoint(unspentOutputs.get(i).txHash, i), null, 0xffffffff);
+        }
+        Transaction unsignedTx = new Transaction(inputs, new Transaction.Output[]{
+                new Transaction.Output(250_000, Transaction.Script.buildOutput("1AyyaMAyo5sbC73kdUjgBK9h3jDMoXzkcP"))}, 0);
+        Transaction tx1 = BTCUtils.sign(unspentOutputs, unsignedTx, BTCUtils.TRANSACTION_TYPE_LEGACY, BTCUtils.NONCE_DETERMINISTIC);
+        Transaction tx2 = BTCUtils.sign(unspentOutputs, unsignedTx, BTCUtils.TRANSACTION_TYPE_LEGACY, BTCUtils.NONCE_DETERMINISTIC);
+        assertTrue(Arrays.equals(tx1.getBytes(), tx2.getBytes()));
+        Transaction.Script[] scripts = new Transaction.Script[inputs.length];
+        long[] amounts = new long[inputs.length];
+        Arrays.fill(scripts, scriptPubKey);
+        Arrays.fill(amounts, 100_000);
+        BTCUtils.verify(scripts, amounts, tx1, false);
+    }
+
+    public void testConcurrentSigningThroughput() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(2, cores);
+        runSignAndVerify(1);//warm up
+        long singleThreadedTime = runSignAndVerify(1);
+        long multiThreadedTime = runSignAndVerify(threads);
+        double speedup = (double) singleThreadedTime * threads / multiThreadedTime;
+        Log.i("ECDSAEngineTest", threads + " threads on " + cores + " cores: " +
+                (OPERATIONS_PER_THREAD * 1000_000_000L / singleThreadedTime) + " sign+verify/s in one thread, " +
+                (OPERATIONS_PER_THREAD * threads * 1000_000_000L / multiThreadedTime) + " sign+verify/s in total, speedup " + speedup);
+    }
+
+    private long runSignAndVerify(int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                final int seed = t;
+                tasks.add(() -> {
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        BigInteger privateKey = BigInteger.valueOf(seed * OPERATIONS_PER_THREAD + i + 2).shiftLeft(200);
+                        byte[] publicKey = BTCUtils.generatePublicKey(privateKey, true);
+                        byte[] hash = BTCUtils.sha256(publicKey);
+                        if (!BTCUtils.verify(publicKey, BTCUtils.sign(privateKey, hash, BTCUtils.NONCE_DETERMINISTIC), hash)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                });
+            }
+            long start = System.nanoTime();
+            List<Future<Boolean>> results = executor.invokeAll(tasks);
+            long time = System.nanoTime() - start;
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            return time;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
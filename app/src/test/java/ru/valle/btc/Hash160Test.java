@@ -0,0 +1,105 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import org.spongycastle.crypto.digests.RIPEMD160Digest;
+import org.spongycastle.crypto.digests.SHA256Digest;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class Hash160Test extends TestCase {
+
+    public void testAllLengthsMatchGenericDigests() {
+        Random random = new Random(160);
+        byte[] input = new byte[Hash160.MAX_LENGTH + 10];
+        byte[] out = new byte[Digests.RIPEMD160_LENGTH + 3];
+        for (int length = 0; length <= Hash160.MAX_LENGTH; length++) {
+            for (int i = 0; i < 5; i++) {
+                random.nextBytes(input);
+                int offset = random.nextInt(10);
+                Hash160.hash(input, offset, length, out, 3);
+                assertTrue("length " + length, Arrays.equals(genericHash160(input, offset, length), Arrays.copyOfRange(out, 3, out.length)));
+            }
+        }
+        try {
+            Hash160.hash(input, 0, Hash160.MAX_LENGTH + 1, out, 0);
+            fail("too long input was hashed");
+        } catch (IllegalArgumentException expected) {
+        }
+        //longer inputs fall back to the digests
+        byte[] script = new byte[500];
+        random.nextBytes(script);
+        assertTrue(Arrays.equals(genericHash160(script, 0, script.length), BTCUtils.sha256ripemd160(script)));
+    }
+
+    public void testKnownAddress() {
+        byte[] publicKey = BTCUtils.fromHex("0450863AD64A87AE8A2FE83C1AF1A8403CB53F53E486D8511DAD8A04887E5B23522CD470243453A299FA9E77237716103ABC11A1DF38855ED6F2EE187E9C582BA6");
+        assertEquals("16UwLL9Risc3QfPqBUvKofHmBQ7wMtjvM", Address.publicKeyToAddress(publicKey));
+    }
+
+    public void testBenchmark() {
+        final int count = 100000;
+        byte[][] publicKeys = new byte[256][];
+        Random random = new Random(1);
+        for (int i = 0; i < publicKeys.length; i++) {
+            publicKeys[i] = new byte[i % 2 == 0 ? 33 : 65];
+            random.nextBytes(publicKeys[i]);
+        }
+        byte[] out = new byte[Digests.RIPEMD160_LENGTH];
+        for (int i = 0; i < 20000; i++) {//warm up both paths
+            genericHash160(publicKeys[i & 255], 0, publicKeys[i & 255].length);
+            Hash160.hash(publicKeys[i & 255], 0, publicKeys[i & 255].length, out, 0);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            genericHash160(publicKeys[i & 255], 0, publicKeys[i & 255].length);
+        }
+        long genericTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Hash160.hash(publicKeys[i & 255], 0, publicKeys[i & 255].length, out, 0);
+        }
+        long kernelTime = System.nanoTime() - start;
+        Log.i("Hash160Test", count + " hash160 of public keys: digests " + genericTime / 1000_000 +
+                "ms, kernel " + kernelTime / 1000_000 + "ms");
+    }
+
+    private static byte[] genericHash160(byte[] input, int offset, int length) {
+        SHA256Digest sha256 = new SHA256Digest();
+        sha256.update(input, offset, length);
+        byte[] sha256Hash = new byte[32];
+        sha256.doFinal(sha256Hash, 0);
+        RIPEMD160Digest ripemd160 = new RIPEMD160Digest();
+        ripemd160.update(sha256Hash, 0, sha256Hash.length);
+        byte[] result = new byte[20];
+        ripemd160.doFinal(result, 0);
+        return result;
+    }
+}
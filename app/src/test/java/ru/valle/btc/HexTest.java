@@ -0,0 +1,79 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+public class HexTest extends TestCase {
+
+    public void testRoundTrip() throws IOException {
+        Random random = new Random(16);
+        for (int length = 0; length < 300; length += 7) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            String hex = BTCUtils.toHex(bytes);
+            assertTrue(Arrays.equals(bytes, BTCUtils.fromHex(hex)));
+            assertTrue(Arrays.equals(bytes, BTCUtils.fromHex(hex.toUpperCase())));
+            assertTrue(Arrays.equals(bytes, Hex.decode(new StringReader(hex))));
+            char[] out = new char[hex.length() + 3];
+            assertEquals(hex.length(), Hex.encode(bytes, 0, bytes.length, out, 3));
+            assertEquals(hex, new String(out, 3, hex.length()));
+        }
+    }
+
+    public void testWhitespaceAndSlices() throws IOException {
+        byte[] expected = {0x01, 0x23, (byte) 0xab, (byte) 0xcd};
+        assertTrue(Arrays.equals(expected, BTCUtils.fromHex(" 01 2\n3ab\tCD\r\n")));
+        assertTrue(Arrays.equals(expected, BTCUtils.fromHex("0123 abcd")));
+        assertTrue(Arrays.equals(expected, Hex.decode("zz0123abcdzz", 2, 10)));
+        assertTrue(Arrays.equals(new byte[0], BTCUtils.fromHex(" \n ")));
+
+        char[] big = new char[20000];
+        for (int i = 0; i < big.length; i++) {
+            big[i] = i % 3 == 2 ? '\n' : "0123456789abcdef".charAt(i % 16);
+        }
+        String dump = new String(big);
+        byte[] fromString = BTCUtils.fromHex(dump);
+        assertNotNull(fromString);
+        assertTrue(Arrays.equals(fromString, Hex.decode(new StringReader(dump))));
+    }
+
+    public void testInvalidInput() throws IOException {
+        assertNull(BTCUtils.fromHex(null));
+        assertNull(BTCUtils.fromHex("012"));
+        assertNull(BTCUtils.fromHex("0 1 2"));
+        assertNull(BTCUtils.fromHex("0g"));
+        assertNull(BTCUtils.fromHex("g0"));
+        assertNull(BTCUtils.fromHex("0x00"));
+        assertNull(BTCUtils.fromHex("١٢"));//Arabic-Indic digits
+        assertNull(Hex.decode(new StringReader("abc")));
+        assertNull(Hex.decode(new StringReader("ab-c")));
+    }
+}
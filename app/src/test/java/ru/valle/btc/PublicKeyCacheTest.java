@@ -0,0 +1,188 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+package ru.valle.btc;
+
+import junit.framework.TestCase;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PublicKeyCacheTest extends TestCase {
+
+    public void testHitsAndMisses() {
+        PublicKeyCache cache = new PublicKeyCache(64);
+        byte[] publicKey = BTCUtils.generatePublicKey(BigInteger.TEN, true);
+        Secp256k1.Point point = cache.get(publicKey);
+        assertTrue(Arrays.equals(BTCUtils.EC_PARAMS.getG().multiply(BigInteger.TEN).getEncoded(true), point.getEncoded(true)));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        publicKey = publicKey.clone();
+        assertSame(point, cache.get(publicKey));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        publicKey[0] = 0;//the cache keeps its own copy of the key
+        assertSame(point, cache.get(BTCUtils.generatePublicKey(BigInteger.TEN, true)));
+        assertEquals(2, cache.getHitCount());
+        assertTrue(Arrays.equals(point.getEncoded(false), cache.get(BTCUtils.generatePublicKey(BigInteger.TEN, false)).getEncoded(false)));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    public void testInvalidKeysAreNotCached() {
+        PublicKeyCache cache = new PublicKeyCache(64);
+        byte[] notOnCurve = new byte[33];
+        notOnCurve[0] = 2;
+        notOnCurve[32] = 5;//x=5 is not on secp256k1
+        try {
+            cache.get(notOnCurve);
+            fail("invalid key was decoded");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, cache.size());
+        try {
+            BTCUtils.verify(notOnCurve, BTCUtils.sign(BigInteger.ONE, BTCUtils.sha256(notOnCurve)), BTCUtils.sha256(notOnCurve));
+            fail("invalid key was decoded");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testEviction() {
+        PublicKeyCache cache = new PublicKeyCache(16 * 4);
+        for (int i = 1; i <= 1000; i++) {
+            cache.get(BTCUtils.generatePublicKey(BigInteger.valueOf(i), true));
+            assertTrue(cache.size() <= 16 * 4);
+        }
+        assertEquals(1000, cache.getMissCount());
+        byte[] recent = BTCUtils.generatePublicKey(BigInteger.valueOf(1000), true);
+        cache.get(recent);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    public void testVerifyUsesCache() throws Exception {
+        BigInteger privateKey = new BigInteger(1, BTCUtils.sha256("PublicKeyCacheTest".getBytes()));
+        byte[] publicKey = BTCUtils.generatePublicKey(privateKey, true);
+        long hits = BTCUtils.getPublicKeyCache().getHitCount();
+        for (int i = 0; i < 10; i++) {
+            //different messages, so the signature cache doesn't answer first
+            byte[] hash = BTCUtils.sha256(new byte[]{(byte) i});
+            assertTrue(BTCUtils.verify(publicKey, BTCUtils.sign(privateKey, hash), hash));
+        }
+        assertTrue(BTCUtils.getPublicKeyCache().getHitCount() - hits >= 9);
+    }
+
+    public void testCapacity() {
+        PublicKeyCache defaultCache = BTCUtils.getPublicKeyCache();
+        try {
+            BTCUtils.setPublicKeyCacheCapacity(32);
+            PublicKeyCache cache = BTCUtils.getPublicKeyCache();
+            assertNotSame(defaultCache, cache);
+            for (int i = 1; i <= 100; i++) {
+                byte[] publicKey = BTCUtils.generatePublicKey(BigInteger.valueOf(i), true);
+                //a message of its own, so the signature cache doesn't answer first
+                byte[] hash = BTCUtils.sha256(("testCapacity" + i).getBytes());
+                assertTrue(BTCUtils.verify(publicKey, BTCUtils.sign(BigInteger.valueOf(i), hash, BTCUtils.NONCE_DETERMINISTIC), hash));
+            }
+            assertEquals(100, cache.getMissCount());
+            assertTrue(cache.size() <= 32);
+        } finally {
+            BTCUtils.setPublicKeyCacheCapacity(4096);
+        }
+        //capacity below the number of segments
+        PublicKeyCache small = new PublicKeyCache(8);
+        for (int i = 1; i <= 20; i++) {
+            small.get(BTCUtils.generatePublicKey(BigInteger.valueOf(i), true));
+        }
+        assertEquals(20, small.getMissCount());
+        assertTrue(small.size() <= 8);
+        try {
+            BTCUtils.setPublicKeyCacheCapacity(-1);
+            fail("negative capacity was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testDisabled() throws Exception {
+        try {
+            BTCUtils.setPublicKeyCacheCapacity(0);
+            PublicKeyCache cache = BTCUtils.getPublicKeyCache();
+            byte[] publicKey = BTCUtils.generatePublicKey(BigInteger.TEN, true);
+            byte[] hash = BTCUtils.sha256("testDisabled".getBytes());
+            byte[] signature = BTCUtils.sign(BigInteger.TEN, hash, BTCUtils.NONCE_DETERMINISTIC);
+            BTCUtils.setSignatureCacheCapacity(0);
+            for (int i = 0; i < 3; i++) {
+                assertTrue(BTCUtils.verify(publicKey, signature, hash));
+            }
+            assertFalse(BTCUtils.verify(publicKey, signature, BTCUtils.sha256(hash)));
+            assertEquals(0, cache.size());
+            assertEquals(0, cache.getHitCount());
+            assertEquals(0, cache.getMissCount());
+            assertEquals(0, BTCUtils.getSignatureCache().size());
+        } finally {
+            BTCUtils.setPublicKeyCacheCapacity(4096);
+            BTCUtils.setSignatureCacheCapacity(16384);
+        }
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        final PublicKeyCache cache = new PublicKeyCache(128);
+        final byte[][] keys = new byte[300][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = BTCUtils.generatePublicKey(BigInteger.valueOf(i + 1), i % 2 == 0);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Callable<Boolean>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                tasks.add(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        int index = (i * 7 + seed * 31) % keys.length;
+                        Secp256k1.Point point = cache.get(keys[index]);
+                        if (!Arrays.equals(keys[index], point.getEncoded(keys[index].length == 33))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                });
+            }
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(4 * 2000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.size() <= 128);
+    }
+}
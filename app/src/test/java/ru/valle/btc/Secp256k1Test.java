@@ -0,0 +1,253 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import org.spongycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Secp256k1Test extends TestCase {
+    private static final BigInteger P = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE.shiftLeft(32)).subtract(BigInteger.valueOf(977));
+    private static final BigInteger N = BTCUtils.EC_PARAMS.getN();
+
+    public void testFieldArithmetic() {
+        Random random = new Random(1);
+        BigInteger[] special = {BigInteger.ZERO, BigInteger.ONE, P.subtract(BigInteger.ONE), P.subtract(BigInteger.valueOf(2)),
+                BigInteger.ONE.shiftLeft(255), P.shiftRight(1)};
+        int[] r = new int[Secp256k1Field.LIMBS];
+        for (int i = 0; i < 10000; i++) {
+            BigInteger x = i < 36 ? special[i % 6] : new BigInteger(256, random).mod(P);
+            BigInteger y = i < 36 ? special[i / 6] : new BigInteger(256, random).mod(P);
+            int[] a = toField(x);
+            int[] b = toField(y);
+            Secp256k1Field.mul(r, a, b);
+            assertEquals(x.multiply(y).mod(P), fromField(r));
+            Secp256k1Field.sqr(r, a);
+            assertEquals(x.multiply(x).mod(P), fromField(r));
+            Secp256k1Field.add(r, a, b);
+            assertEquals(x.add(y).mod(P), fromField(r));
+            Secp256k1Field.sub(r, a, b);
+            assertEquals(x.subtract(y).mod(P), fromField(r));
+            Secp256k1Field.negate(r, a);
+            assertEquals(x.negate().mod(P), fromField(r));
+            Secp256k1Field.mulInt(r, a, 8);
+            assertEquals(x.shiftLeft(3).mod(P), fromField(r));
+            //results of add and sub are not normalized, multiplication must accept them
+            int[] chain = a.clone();
+            BigInteger expected = x;
+            for (int j = 0; j < 5; j++) {
+                Secp256k1Field.add(chain, chain, b);
+                Secp256k1Field.sub(chain, chain, a);
+                Secp256k1Field.sqr(chain, chain);
+                expected = expected.add(y).subtract(x).pow(2).mod(P);
+            }
+            assertEquals(expected, fromField(chain));
+            if (i < 500) {
+                Secp256k1Field.inv(r, a);
+                assertEquals(x.signum() == 0 ? BigInteger.ZERO : x.modInverse(P), fromField(r));
+                BigInteger root = x.modPow(P.add(BigInteger.ONE).shiftRight(2), P);
+                assertEquals(root.multiply(root).mod(P).equals(x), Secp256k1Field.sqrt(r, a));
+                assertEquals(root, fromField(r));
+            }
+        }
+        assertFalse(Secp256k1Field.setBytes(r, to32Bytes(P), 0));
+        assertTrue(Secp256k1Field.setBytes(r, to32Bytes(P.subtract(BigInteger.ONE)), 0));
+    }
+
+    public void testScalarArithmetic() {
+        Random random = new Random(2);
+        BigInteger[] special = {BigInteger.ZERO, BigInteger.ONE, N.subtract(BigInteger.ONE), N.shiftRight(1),
+                N.shiftRight(1).add(BigInteger.ONE), BigInteger.ONE.shiftLeft(255)};
+        int[] r = new int[Secp256k1Scalar.LIMBS];
+        for (int i = 0; i < 10000; i++) {
+            BigInteger x = i < 36 ? special[i % 6] : new BigInteger(256, random).mod(N);
+            BigInteger y = i < 36 ? special[i / 6] : new BigInteger(256, random).mod(N);
+            int[] a = Secp256k1Scalar.fromBigInteger(x);
+            int[] b = Secp256k1Scalar.fromBigInteger(y);
+            assertEquals(x, fromScalar(a));
+            Secp256k1Scalar.mul(r, a, b);
+            assertEquals(x.multiply(y).mod(N), fromScalar(r));
+            Secp256k1Scalar.add(r, a, b);
+            assertEquals(x.add(y).mod(N), fromScalar(r));
+            Secp256k1Scalar.negate(r, a);
+            assertEquals(x.negate().mod(N), fromScalar(r));
+            assertEquals(x.compareTo(N.shiftRight(1)) > 0, Secp256k1Scalar.isHigh(a));
+            assertEquals(x.compareTo(y) < 0, Secp256k1Scalar.lessThan(a, b));
+            int[] fixed = Secp256k1Scalar.withFixedLength(a);
+            BigInteger fixedValue = BigInteger.valueOf(fixed[Secp256k1Scalar.LIMBS]).shiftLeft(256).add(fromScalar(fixed));
+            assertEquals(257, fixedValue.bitLength());
+            assertEquals(x, fixedValue.mod(N));
+            if (i < 500) {
+                Secp256k1Scalar.inv(r, a);
+                assertEquals(x.signum() == 0 ? BigInteger.ZERO : x.modInverse(N), fromScalar(r));
+            }
+        }
+        BigInteger max = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+        assertEquals(max.mod(N), fromScalar(Secp256k1Scalar.fromBigInteger(max)));
+        assertEquals(max.mod(N), fromScalar(Secp256k1Scalar.fromBytesReduced(to32Bytes(max))));
+        assertTrue(Secp256k1Scalar.isZero(Secp256k1Scalar.fromBigInteger(N)));
+        assertFalse(Secp256k1Scalar.isValid(Secp256k1Scalar.fromBytes(to32Bytes(N), 0, 32)));
+        assertTrue(Secp256k1Scalar.isValid(Secp256k1Scalar.fromBytes(to32Bytes(N.subtract(BigInteger.ONE)), 0, 32)));
+    }
+
+    public void testLambdaDecomposition() {
+        Random random = new Random(4);
+        BigInteger lambda = fromScalar(Secp256k1Scalar.LAMBDA);
+        assertEquals(BigInteger.ONE, lambda.modPow(BigInteger.valueOf(3), N));
+        BigInteger[] special = {BigInteger.ZERO, BigInteger.ONE, N.subtract(BigInteger.ONE), lambda, N.subtract(lambda),
+                BigInteger.ONE.shiftLeft(128), N.shiftRight(1), N.subtract(BigInteger.ONE.shiftLeft(128))};
+        int[] r1 = new int[Secp256k1Scalar.LIMBS];
+        int[] r2 = new int[Secp256k1Scalar.LIMBS];
+        for (int i = 0; i < 10000; i++) {
+            BigInteger k = i < special.length ? special[i] : new BigInteger(256, random).mod(N);
+            Secp256k1Scalar.splitLambda(r1, r2, Secp256k1Scalar.fromBigInteger(k));
+            BigInteger a = fromScalar(r1);
+            BigInteger b = fromScalar(r2);
+            assertEquals(k, a.add(b.multiply(lambda)).mod(N));
+            assertTrue(a.min(N.subtract(a)).bitLength() <= 128);
+            assertTrue(b.min(N.subtract(b)).bitLength() <= 128);
+        }
+    }
+
+    public void testPointMultiplication() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            BigInteger k = i < 3 ? BigInteger.valueOf(i + 1) : i == 3 ? N.subtract(BigInteger.ONE) : new BigInteger(256, random).mod(N);
+            ECPoint expected = BTCUtils.EC_PARAMS.getG().multiply(k).normalize();
+            Secp256k1.Point point = Secp256k1.multiplyGenerator(Secp256k1Scalar.fromBigInteger(k));
+            assertTrue(Arrays.equals(expected.getEncoded(true), point.getEncoded(true)));
+            assertTrue(Arrays.equals(expected.getEncoded(false), point.getEncoded(false)));
+            Secp256k1.Point decoded = Secp256k1.Point.decode(expected.getEncoded(i % 2 == 0));
+            assertTrue(Arrays.equals(expected.getEncoded(false), decoded.getEncoded(false)));
+
+            BigInteger m = new BigInteger(256, random).mod(N);
+            assertTrue(Arrays.equals(expected.multiply(m).normalize().getEncoded(true),
+                    decoded.multiply(Secp256k1Scalar.fromBigInteger(m)).getEncoded(true)));
+        }
+        assertNull(Secp256k1.multiplyGenerator(Secp256k1Scalar.fromBigInteger(N)));
+        assertNull(Secp256k1.G.multiply(new int[Secp256k1Scalar.LIMBS]));
+    }
+
+    public void testGeneratorMultiplicationWindows() {
+        //scalars with zero and all-ones windows, which take the first and the last entries of the table
+        BigInteger[] scalars = {BigInteger.ONE.shiftLeft(252), BigInteger.valueOf(15).shiftLeft(252), BigInteger.ONE.shiftLeft(128),
+                BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE).mod(N), BigInteger.valueOf(0x1000000000000000L),
+                N.subtract(BigInteger.valueOf(16)), BigInteger.valueOf(16)};
+        for (BigInteger k : scalars) {
+            ECPoint expected = BTCUtils.EC_PARAMS.getG().multiply(k).normalize();
+            assertTrue(Arrays.equals(expected.getEncoded(false), Secp256k1.multiplyGenerator(Secp256k1Scalar.fromBigInteger(k)).getEncoded(false)));
+        }
+        assertNull(Secp256k1.multiplyGenerator(new int[Secp256k1Scalar.LIMBS]));
+    }
+
+    public void testGeneratorMultiplicationBenchmark() {
+        final int count = 300;
+        int[][] scalars = new int[count][];
+        BigInteger[] privateKeys = new BigInteger[count];
+        Random random = new Random(2);
+        for (int i = 0; i < count; i++) {
+            privateKeys[i] = new BigInteger(256, random).mod(N);
+            scalars[i] = Secp256k1Scalar.fromBigInteger(privateKeys[i]);
+        }
+        for (int i = 0; i < 100; i++) {//warm up both paths
+            assertTrue(Arrays.equals(BTCUtils.EC_PARAMS.getG().multiply(privateKeys[i]).getEncoded(true),
+                    Secp256k1.multiplyGenerator(scalars[i]).getEncoded(true)));
+        }
+        long start = System.nanoTime();
+        byte[][] expected = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            expected[i] = BTCUtils.EC_PARAMS.getG().multiply(privateKeys[i]).getEncoded(false);
+        }
+        long spongyTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        byte[][] actual = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            actual[i] = Secp256k1.multiplyGenerator(scalars[i]).getEncoded(false);
+        }
+        long tableTime = System.nanoTime() - start;
+        for (int i = 0; i < count; i++) {
+            assertTrue(Arrays.equals(expected[i], actual[i]));
+        }
+        Log.i("Secp256k1Test", count + " generator multiplications: ECPoint.multiply " + spongyTime / 1000 +
+                "us, fixed-window table " + tableTime / 1000 + "us");
+    }
+
+    public void testInvalidPointsAreRejected() {
+        byte[] encoded = BTCUtils.generatePublicKey(BigInteger.TEN, false);
+        encoded[64] ^= 1;
+        try {
+            Secp256k1.Point.decode(encoded);
+            fail("point off the curve was decoded");
+        } catch (IllegalArgumentException expected) {
+        }
+        encoded = BTCUtils.generatePublicKey(BigInteger.TEN, true);
+        encoded[0] = 5;
+        try {
+            Secp256k1.Point.decode(encoded);
+            fail("unknown encoding type was decoded");
+        } catch (IllegalArgumentException expected) {
+        }
+        byte[] xTooLarge = new byte[33];
+        xTooLarge[0] = 2;
+        System.arraycopy(to32Bytes(P.add(BigInteger.ONE)), 0, xTooLarge, 1, 32);
+        try {
+            Secp256k1.Point.decode(xTooLarge);
+            fail("coordinate above p was decoded");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static byte[] to32Bytes(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] result = new byte[32];
+        int length = Math.min(32, bytes.length);
+        System.arraycopy(bytes, bytes.length - length, result, 32 - length, length);
+        return result;
+    }
+
+    private static int[] toField(BigInteger value) {
+        int[] result = new int[Secp256k1Field.LIMBS];
+        assertTrue(Secp256k1Field.setBytes(result, to32Bytes(value), 0));
+        return result;
+    }
+
+    private static BigInteger fromField(int[] a) {
+        int[] normalized = a.clone();
+        Secp256k1Field.normalize(normalized);
+        byte[] bytes = new byte[32];
+        Secp256k1Field.getBytes(normalized, bytes, 0);
+        return new BigInteger(1, bytes);
+    }
+
+    private static BigInteger fromScalar(int[] a) {
+        return new BigInteger(1, Secp256k1Scalar.getBytes(a));
+    }
+}
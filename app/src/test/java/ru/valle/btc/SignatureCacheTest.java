@@ -0,0 +1,103 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import junit.framework.TestCase;
+
+import java.math.BigInteger;
+
+public class SignatureCacheTest extends TestCase {
+    private static final BigInteger PRIVATE_KEY = new BigInteger(1, BTCUtils.sha256("SignatureCacheTest".getBytes()));
+
+    public void testOnlyAddedSignaturesAreFound() {
+        SignatureCache cache = new SignatureCache(64);
+        byte[] publicKey = BTCUtils.generatePublicKey(PRIVATE_KEY, true);
+        byte[] hash = BTCUtils.sha256(publicKey);
+        byte[] signature = BTCUtils.sign(PRIVATE_KEY, hash);
+        assertFalse(cache.contains(hash, publicKey, signature, signature.length));
+        cache.add(hash, publicKey, signature, signature.length);
+        assertTrue(cache.contains(hash, publicKey, signature, signature.length));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        //any part of the entry differs
+        assertFalse(cache.contains(BTCUtils.sha256(hash), publicKey, signature, signature.length));
+        assertFalse(cache.contains(hash, BTCUtils.generatePublicKey(PRIVATE_KEY, false), signature, signature.length));
+        assertFalse(cache.contains(hash, publicKey, signature, signature.length - 1));
+        //bytes after the signature (sighash type) are not a part of the entry
+        byte[] signatureAndHashType = new byte[signature.length + 1];
+        System.arraycopy(signature, 0, signatureAndHashType, 0, signature.length);
+        signatureAndHashType[signature.length] = 1;
+        assertTrue(cache.contains(hash, publicKey, signatureAndHashType, signature.length));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+        assertFalse(cache.contains(hash, publicKey, signature, signature.length));
+    }
+
+    public void testEviction() {
+        SignatureCache cache = new SignatureCache(16 * 4);
+        byte[] publicKey = BTCUtils.generatePublicKey(PRIVATE_KEY, true);
+        byte[] signature = BTCUtils.sign(PRIVATE_KEY, BTCUtils.sha256(publicKey));
+        for (int i = 0; i < 1000; i++) {
+            cache.add(BTCUtils.sha256(new byte[]{(byte) i, (byte) (i >> 8)}), publicKey, signature, signature.length);
+            assertTrue(cache.size() <= 16 * 4);
+        }
+        assertTrue(cache.contains(BTCUtils.sha256(new byte[]{(byte) 999, (byte) (999 >> 8)}), publicKey, signature, signature.length));
+    }
+
+    public void testVerifyUsesCache() {
+        byte[] publicKey = BTCUtils.generatePublicKey(PRIVATE_KEY, true);
+        byte[] hash = BTCUtils.sha256(BTCUtils.sha256(publicKey));
+        byte[] signature = BTCUtils.sign(PRIVATE_KEY, hash);
+        long hits = BTCUtils.getSignatureCache().getHitCount();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(BTCUtils.verify(publicKey, signature, hash));
+        }
+        assertTrue(BTCUtils.getSignatureCache().getHitCount() - hits >= 9);
+        //failures are not remembered
+        byte[] otherHash = BTCUtils.sha256(hash);
+        for (int i = 0; i < 2; i++) {
+            assertFalse(BTCUtils.verify(publicKey, signature, otherHash));
+        }
+        assertFalse(BTCUtils.getSignatureCache().contains(otherHash, publicKey, signature, signature.length));
+    }
+
+    public void testCapacity() {
+        try {
+            BTCUtils.setSignatureCacheCapacity(32);
+            SignatureCache cache = BTCUtils.getSignatureCache();
+            byte[] publicKey = BTCUtils.generatePublicKey(PRIVATE_KEY, true);
+            for (int i = 0; i < 100; i++) {
+                byte[] hash = BTCUtils.sha256(new byte[]{(byte) i});
+                assertTrue(BTCUtils.verify(publicKey, BTCUtils.sign(PRIVATE_KEY, hash), hash));
+            }
+            assertEquals(100, cache.getMissCount());
+            assertTrue(cache.size() <= 32);
+        } finally {
+            BTCUtils.setSignatureCacheCapacity(16384);
+        }
+    }
+}
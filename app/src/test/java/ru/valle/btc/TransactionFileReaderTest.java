@@ -0,0 +1,186 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+public class TransactionFileReaderTest extends TestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("transactions", ".dat");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        assertTrue(file.delete());
+        super.tearDown();
+    }
+
+    public void testConcatenatedTransactions() throws Exception {
+        List<byte[]> transactions = TransactionViewTest.loadValidTransactions();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int i = 0; i < 3; i++) {
+                for (byte[] rawTx : transactions) {
+                    out.write(rawTx);
+                }
+            }
+        }
+        //small windows, so many transactions cross them
+        try (TransactionFileReader reader = TransactionFileReader.open(file, false, 0, 4096)) {
+            for (int i = 0; i < 3; i++) {
+                for (byte[] rawTx : transactions) {
+                    assertSameTransaction(rawTx, reader.next());
+                }
+            }
+            assertNull(reader.next());
+            assertEquals(file.length(), reader.position());
+        }
+    }
+
+    public void testTruncatedFile() throws Exception {
+        byte[] rawTx = TransactionViewTest.loadValidTransactions().get(0);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(rawTx);
+            out.write(rawTx, 0, rawTx.length - 1);
+        }
+        try (TransactionFileReader reader = TransactionFileReader.openTransactions(file)) {
+            assertSameTransaction(rawTx, reader.next());
+            try {
+                reader.next();
+                fail("incomplete transaction was read");
+            } catch (BitcoinException expected) {
+                assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+            }
+        }
+    }
+
+    public void testBlocks() throws Exception {
+        List<byte[]> transactions = TransactionViewTest.loadValidTransactions();
+        int half = transactions.size() / 2;
+        try (OutputStream out = new FileOutputStream(file)) {
+            writeBlock(out, TransactionFileReader.MAINNET_MAGIC, transactions.subList(0, half));
+            writeBlock(out, TransactionFileReader.MAINNET_MAGIC, transactions.subList(half, transactions.size()));
+            //bitcoin core preallocates block files
+            out.write(new byte[1000]);
+        }
+        try (TransactionFileReader reader = TransactionFileReader.open(file, true, TransactionFileReader.MAINNET_MAGIC, 4096)) {
+            for (byte[] rawTx : transactions) {
+                assertSameTransaction(rawTx, reader.next());
+            }
+            assertNull(reader.next());
+        }
+        try (TransactionFileReader reader = TransactionFileReader.openBlocks(file, TransactionFileReader.TESTNET_MAGIC)) {
+            reader.next();
+            fail("wrong network was read");
+        } catch (BitcoinException expected) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+        }
+    }
+
+    public void testBlockWithExtraData() throws Exception {
+        byte[] rawTx = TransactionViewTest.loadValidTransactions().get(0);
+        BitcoinOutputStream block = new BitcoinOutputStream();
+        block.write(new byte[Block.HEADER_SIZE]);
+        block.writeVarInt(1);
+        block.write(rawTx);
+        block.write(0);
+        try (OutputStream out = new FileOutputStream(file)) {
+            BlockFiles.writeRecord(out, TransactionFileReader.MAINNET_MAGIC, block.toByteArray());
+        }
+        try (TransactionFileReader reader = TransactionFileReader.openBlocks(file, TransactionFileReader.MAINNET_MAGIC)) {
+            assertSameTransaction(rawTx, reader.next());
+            reader.next();
+            fail("extra data in the block was ignored");
+        } catch (BitcoinException expected) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+        }
+    }
+
+    public void testBenchmark() throws Exception {
+        List<byte[]> transactions = TransactionViewTest.loadValidTransactions();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            int written = 0;
+            while (written < 1 << 20) {
+                for (byte[] rawTx : transactions) {
+                    out.write(rawTx);
+                    written += rawTx.length;
+                }
+            }
+        }
+        //a megabyte in windows of 64KB, so the throughput includes remapping
+        for (int i = 0; i < 2; i++) {
+            long start = System.nanoTime();
+            int count = 0;
+            long outputsCount = 0;
+            try (TransactionFileReader reader = TransactionFileReader.open(file, false, 0, 1 << 16)) {
+                TransactionView transaction;
+                while ((transaction = reader.next()) != null) {
+                    outputsCount += transaction.getOutputsCount();
+                    count++;
+                }
+            }
+            long time = System.nanoTime() - start;
+            assertTrue(outputsCount > 0);
+            Log.i("TransactionFileReaderTest", count + " transactions, " + (file.length() >> 10) + "KB read in " + time / 1000 + "us, " +
+                    (file.length() * 1000_000_000L / time >> 20) + "MB/s");
+        }
+    }
+
+    private static void assertSameTransaction(byte[] expected, TransactionView actual) throws BitcoinException {
+        assertNotNull(actual);
+        TransactionView expectedView = TransactionView.parse(ByteBuffer.wrap(expected));
+        assertEquals(expected.length, actual.end - actual.start);
+        assertTrue(Arrays.equals(expectedView.hash(), actual.hash()));
+        assertEquals(expectedView.getOutputsCount(), actual.getOutputsCount());
+        for (int i = 0; i < expectedView.getOutputsCount(); i++) {
+            assertEquals(expectedView.getOutputValue(i), actual.getOutputValue(i));
+            assertTrue(Arrays.equals(expectedView.getOutputScript(i), actual.getOutputScript(i)));
+        }
+    }
+
+    private static void writeBlock(OutputStream out, int magic, List<byte[]> transactions) throws IOException {
+        BitcoinOutputStream block = new BitcoinOutputStream();
+        block.write(new byte[Block.HEADER_SIZE]);
+        block.writeVarInt(transactions.size());
+        for (byte[] rawTx : transactions) {
+            block.write(rawTx);
+        }
+        BlockFiles.writeRecord(out, magic, block.toByteArray());
+    }
+}
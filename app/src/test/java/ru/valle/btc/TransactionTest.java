@@ -22,6 +22,8 @@
  THE SOFTWARE.*/
 package ru.valle.btc;
 
+import android.util.Log;
+
 import junit.framework.TestCase;
 
 import org.json.JSONArray;
@@ -35,7 +37,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Stack;
 
@@ -89,6 +94,21 @@ public final class TransactionTest extends TestCase {
 
     }
 
+    public void testHashes() throws Exception {
+        Transaction tx = Transaction.decodeTransaction(BTCUtils.fromHex(TX_BYTES));
+        byte[] hash = tx.hash();
+        assertEquals("ba3d64e55402f04ce03822f5bcf5a99e3cae675b7dc4ac743e6474bc72b46b48", BTCUtils.toHex(hash));
+        assertTrue(Arrays.equals(BTCUtils.reverse(BTCUtils.doubleSha256(tx.getBytes(false))), hash));
+        hash[0] = 0;//the remembered hash is not exposed
+        assertEquals("ba3d64e55402f04ce03822f5bcf5a99e3cae675b7dc4ac743e6474bc72b46b48", BTCUtils.toHex(tx.hash()));
+        assertTrue(Arrays.equals(tx.hash(), tx.witnessHash()));
+
+        //signed native P2WPKH example of BIP143
+        Transaction segwitTx = Transaction.decodeTransaction(BTCUtils.fromHex("01000000000102fff7f7881a8099afa6940d42d1e7f6362bec38171ea3edf433541db4e4ad969f00000000494830450221008b9d1dc26ba6a9cb62127b02742fa9d754cd3bebf337f7a55d114c8e5cdd30be022040529b194ba3f9281a99f2b1c0a19c0489bc22ede944ccf4ecbab4cc618ef3ed01eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2b55d57b90ec68a0100000000ffffffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac9093510d000000001976a9143bde42dbee7e4dbe6a21b2d50ce2f0167faa815988ac000247304402203609e17b84f6a7d30c80bfa610b5b4542f32a8a0d5447a12fb1366d7f01cc44a0220573a954c4518331561406f90300e8f3358f51928d43c212a8caed02de67eebee0121025476c2e83188368da1ff3e292e7acafcdb3566bb0ad253f62fc70f07aeee635711000000"));
+        assertEquals("e8151a2af31c368a35053ddd4bdb285a8595c769a3ad83e0fa02314a602d4609", BTCUtils.toHex(segwitTx.hash()));
+        assertEquals("c36c38370907df2324d9ce9d149d191192f338b37665a82e78e76a12c909b762", BTCUtils.toHex(segwitTx.witnessHash()));
+    }
+
     public void testScript() {
         Stack<byte[]> stack = new Stack<>();
         try {
@@ -286,6 +306,177 @@ public final class TransactionTest extends TestCase {
         }
     }
 
+    public void testFormatDetection() throws Exception {
+        //no inputs and no outputs: the zero inputs count is followed by the zero outputs count, not by a witness flag
+        Transaction empty = Transaction.decodeTransaction(BTCUtils.fromHex("01000000000000000000"));
+        assertEquals(0, empty.inputs.length);
+        assertEquals(0, empty.outputs.length);
+        assertEquals(0, empty.scriptWitnesses.length);
+        byte[] witnessTx = null;
+        for (byte[] rawTx : TransactionViewTest.loadValidTransactions()) {
+            Transaction tx = Transaction.decodeTransaction(rawTx);
+            boolean hasMarker = rawTx[4] == 0 && rawTx[5] != 0;
+            assertEquals(hasMarker, tx.scriptWitnesses.length > 0);
+            assertEquals(hasMarker, TransactionView.parse(ByteBuffer.wrap(rawTx)).hasWitness());
+            assertEquals(hasMarker, TransactionView.parseOutputs(rawTx).hasWitness());
+            if (hasMarker) {
+                witnessTx = rawTx;
+            }
+        }
+        assertNotNull(witnessTx);
+        try {
+            Transaction.decodeTransaction(Arrays.copyOf(witnessTx, witnessTx.length - 1));
+            fail("truncated witness transaction was decoded");
+        } catch (BitcoinException expected) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+        }
+        try {
+            Transaction.decodeTransaction(Arrays.copyOf(witnessTx, 5));
+            fail("marker without flag was decoded");
+        } catch (BitcoinException expected) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+        }
+    }
+
+    public void testCanonicalDecoding() throws Exception {
+        byte[] rawTx = BTCUtils.fromHex(TX_BYTES);
+        Transaction tx = Transaction.decodeCanonicalTransaction(rawTx);
+        assertTrue(Arrays.equals(rawTx, tx.getBytes()));
+        TransactionView view = TransactionView.parseCanonical(ByteBuffer.wrap(Arrays.copyOf(rawTx, rawTx.length + 3)), true);
+        assertEquals(rawTx.length, view.end - view.start);
+        assertEquals(2, view.getOutputsCount());
+
+        assertNotCanonical(Arrays.copyOf(rawTx, rawTx.length + 1));
+        //inputs count 1 as fd0100
+        assertNotCanonical(BTCUtils.fromHex(TX_BYTES.substring(0, 8) + "fd0100" + TX_BYTES.substring(10)));
+        //script length 0x6c as fd6c00
+        assertNotCanonical(BTCUtils.fromHex(TX_BYTES.substring(0, 82) + "fd6c00" + TX_BYTES.substring(84)));
+
+        Transaction.Input[] inputs = tx.inputs;
+        byte[] withEmptyWitnesses = new Transaction(tx.version, inputs, tx.outputs, tx.lockTime, new byte[][][]{new byte[0][]}).getBytes();
+        assertNotCanonical(withEmptyWitnesses);
+        byte[] withWitness = new Transaction(tx.version, inputs, tx.outputs, tx.lockTime, new byte[][][]{{new byte[]{1}}}).getBytes();
+        assertEquals(1, Transaction.decodeCanonicalTransaction(withWitness).scriptWitnesses.length);
+        withWitness[5] = 2;
+        assertNotCanonical(withWitness);
+
+        BitcoinOutputStream out = new BitcoinOutputStream();
+        out.writeVarInt(0xffff);
+        out.writeVarInt(0xffffffffL);
+        assertEquals("fdfffffeffffffff", BTCUtils.toHex(out.toByteArray()));
+        BitcoinCursor cursor = new BitcoinCursor(ByteBuffer.wrap(out.toByteArray()), true);
+        assertEquals(0xffff, cursor.readVarInt());
+        assertEquals(0xffffffffL, cursor.readVarInt());
+
+        for (byte[] validTx : TransactionViewTest.loadValidTransactions()) {
+            boolean roundTrips = Arrays.equals(validTx, Transaction.decodeTransaction(validTx).getBytes());
+            boolean canonical;
+            try {
+                Transaction.decodeCanonicalTransaction(validTx);
+                TransactionView.parseCanonical(validTx, true);
+                canonical = true;
+            } catch (BitcoinException e) {
+                canonical = false;
+            }
+            assertEquals(roundTrips, canonical);
+        }
+    }
+
+    private static void assertNotCanonical(byte[] rawTx) throws BitcoinException {
+        Transaction.decodeTransaction(rawTx);
+        try {
+            Transaction.decodeCanonicalTransaction(rawTx);
+            fail("non-canonical transaction was decoded");
+        } catch (BitcoinException expected) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+        }
+        try {
+            TransactionView.parseCanonical(rawTx, true);
+            fail("non-canonical transaction was parsed");
+        } catch (BitcoinException expected) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, expected.errorCode);
+        }
+    }
+
+    public void testSizes() throws Exception {
+        for (byte[] rawTx : TransactionViewTest.loadValidTransactions()) {
+            Transaction tx = Transaction.decodeTransaction(rawTx);
+            byte[] withWitness = tx.getBytes(true);
+            byte[] withoutWitness = tx.getBytes(false);
+            BitcoinOutputStream stream = new BitcoinOutputStream();
+            tx.writeTo(BitcoinSink.of(stream), true);
+            assertTrue(Arrays.equals(stream.toByteArray(), withWitness));
+            assertEquals(withWitness.length, tx.getTotalSize());
+            assertEquals(withoutWitness.length, tx.getBaseSize());
+            assertEquals(withoutWitness.length * 3 + withWitness.length, tx.getWeightUnits());
+            assertEquals((int) Math.ceil(tx.getWeightUnits() / 4.0), tx.getVBytesSize());
+
+            ByteBuffer buffer = ByteBuffer.allocate(withWitness.length + 3);
+            buffer.put((byte) 1);
+            assertEquals(withWitness.length, tx.writeTo(buffer, true));
+            assertEquals(withWitness.length + 1, buffer.position());
+            assertTrue(Arrays.equals(withWitness, Arrays.copyOfRange(buffer.array(), 1, withWitness.length + 1)));
+            try {
+                tx.writeTo(ByteBuffer.allocateDirect(withoutWitness.length - 1), false);
+                fail("transaction was written into a small buffer");
+            } catch (BufferOverflowException expected) {
+            }
+        }
+    }
+
+    public void testSerializationBenchmark() throws Exception {
+        Transaction tx = Transaction.decodeTransaction(BTCUtils.fromHex(TX_BYTES));
+        final int count = 200000;
+        for (int i = 0; i < count / 10; i++) {
+            tx.writeTo(BitcoinSink.of(new BitcoinOutputStream()), true);
+            tx.getBytes();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            BitcoinOutputStream stream = new BitcoinOutputStream();
+            tx.writeTo(BitcoinSink.of(stream), true);
+            stream.toByteArray();
+        }
+        long streamTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            tx.getBytes();
+        }
+        long exactTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            tx.getWeightUnits();
+        }
+        long weightTime = System.nanoTime() - start;
+        Log.i("TransactionTest", count + " serializations of " + TX_BYTES.length() / 2 + " bytes: growing stream " + streamTime / 1000_000 +
+                "ms, exact size " + exactTime / 1000_000 + "ms; weight " + weightTime / 1000_000 + "ms");
+    }
+
+    public void testMixedCorpusBenchmark() throws Exception {
+        List<byte[]> transactions = TransactionViewTest.loadValidTransactions();
+        int witnessCount = 0;
+        for (byte[] rawTx : transactions) {
+            if (Transaction.decodeTransaction(rawTx).scriptWitnesses.length > 0) {
+                witnessCount++;
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            for (byte[] rawTx : transactions) {
+                Transaction.decodeTransaction(rawTx);
+            }
+        }
+        final int rounds = 500;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (byte[] rawTx : transactions) {
+                Transaction.decodeTransaction(rawTx);
+            }
+        }
+        long time = System.nanoTime() - start;
+        Log.i("TransactionTest", rounds + " x " + transactions.size() + " transactions (" + witnessCount + " with witnesses) decoded in " +
+                time / 1000_000 + "ms, " + time / rounds / transactions.size() + "ns per transaction");
+    }
+
     public void testBitcoinCoreInvalidTransactions() throws FileNotFoundException, JSONException {
         File file = new File(getClass().getClassLoader().getResource("tx_invalid.json").getPath());
         assertTrue(file.exists());
@@ -335,6 +526,59 @@ public final class TransactionTest extends TestCase {
         }
     }
 
+    /**
+     * Single key CHECKSIG cases of bitcoin core script_tests.json, which exercise signature parsing and verification.
+     * Cases which rely on policy checks this interpreter doesn't implement yet are skipped.
+     */
+    public void testBitcoinCoreScriptSignatureChecks() throws FileNotFoundException, JSONException {
+        File file = new File(getClass().getClassLoader().getResource("script_tests.json").getPath());
+        assertTrue(file.exists());
+        JSONArray all = new JSONArray(isToString(new FileInputStream(file)));
+        int checked = 0;
+        for (int i = 0; i < all.length(); i++) {
+            JSONArray line = all.getJSONArray(i);
+            if (line.length() < 4 || !(line.get(0) instanceof String)) {
+                continue;
+            }
+            String scriptSigStr = line.getString(0);
+            String scriptPubKeyStr = line.getString(1);
+            String expected = line.getString(3);
+            String desc = line.length() > 4 ? line.getString(4) : scriptSigStr + " " + scriptPubKeyStr;
+            if (!(scriptSigStr + scriptPubKeyStr).contains("CHECKSIG") || (scriptSigStr + scriptPubKeyStr).contains("MULTISIG") ||
+                    expected.equals("SIG_HIGH_S") || expected.equals("PUBKEYTYPE") || expected.equals("CLEANSTACK") ||
+                    desc.endsWith("without DERSIG")) {
+                continue;
+            }
+            Transaction.Script scriptPubKey;
+            Transaction.Script scriptSig;
+            try {
+                scriptPubKey = new Transaction.Script(Transaction.Script.convertReadableStringToBytesCoreStyle(scriptPubKeyStr));
+                scriptSig = new Transaction.Script(Transaction.Script.convertReadableStringToBytesCoreStyle(scriptSigStr));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            Transaction credit = new Transaction(
+                    new Transaction.Input[]{new Transaction.Input(new Transaction.OutPoint(new byte[32], -1), new Transaction.Script(new byte[]{0, 0}), -1)},
+                    new Transaction.Output[]{new Transaction.Output(0, scriptPubKey)}, 0);
+            Transaction spend = new Transaction(
+                    new Transaction.Input[]{new Transaction.Input(new Transaction.OutPoint(credit.hash(), 0), scriptSig, -1)},
+                    new Transaction.Output[]{new Transaction.Output(0, new Transaction.Script(new byte[0]))}, 0);
+            int flags = line.getString(2).isEmpty() ? 0 : parseScriptFlags(line.getString(2));
+            boolean valid;
+            try {
+                BTCUtils.verify(new Transaction.Script[]{scriptPubKey}, new long[]{0}, spend, flags);
+                valid = true;
+            } catch (NotImplementedException notImplEx) {
+                continue;
+            } catch (Transaction.Script.ScriptInvalidException e) {
+                valid = false;
+            }
+            assertEquals(desc, expected.equals("OK"), valid);
+            checked++;
+        }
+        assertTrue(checked > 50);
+    }
+
     public void testSighashes() throws FileNotFoundException, JSONException, BitcoinException {
         File file = new File(getClass().getClassLoader().getResource("sighash.json").getPath());
         assertTrue(file.exists());
@@ -0,0 +1,169 @@
+/*
+ The MIT License (MIT)
+
+ Copyright (c) 2018 Valentin Konovalov
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.*/
+
+
+package ru.valle.btc;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+public class TransactionViewTest extends TestCase {
+
+    public void testMatchesTransactionDecoding() throws Exception {
+        for (byte[] rawTx : loadValidTransactions()) {
+            Transaction tx = Transaction.decodeTransaction(rawTx);
+            boolean withWitness = tx.scriptWitnesses.length > 0;
+            //the view over a slice in the middle of a larger direct buffer
+            ByteBuffer buffer = ByteBuffer.allocateDirect(rawTx.length + 10);
+            buffer.position(3);
+            buffer.put(rawTx);
+            buffer.position(3);
+            TransactionView view = TransactionView.parse(buffer, withWitness);
+            assertEquals(3, buffer.position());
+            assertEquals(3, view.start);
+            assertEquals(3 + rawTx.length, view.end);
+            assertEquals(tx.version, view.version);
+            assertEquals(tx.lockTime, view.lockTime);
+            assertEquals(tx.inputs.length, view.getInputsCount());
+            for (int i = 0; i < tx.inputs.length; i++) {
+                Transaction.Input input = tx.inputs[i];
+                assertTrue(Arrays.equals(input.outPoint.hash, view.getOutPointHash(i)));
+                assertEquals(input.outPoint.index, view.getOutPointIndex(i));
+                assertTrue(Arrays.equals(input.scriptSig.bytes, view.getInputScript(i)));
+                assertEquals(input.sequence, view.getSequence(i));
+                int itemsCount = withWitness ? tx.scriptWitnesses[i].length : 0;
+                assertEquals(itemsCount, view.getWitnessItemsCount(i));
+                for (int j = 0; j < itemsCount; j++) {
+                    assertTrue(Arrays.equals(tx.scriptWitnesses[i][j], view.getWitnessItem(i, j)));
+                }
+            }
+            assertEquals(tx.outputs.length, view.getOutputsCount());
+            for (int i = 0; i < tx.outputs.length; i++) {
+                assertEquals(tx.outputs[i].value, view.getOutputValue(i));
+                assertTrue(Arrays.equals(tx.outputs[i].scriptPubKey.bytes, view.getOutputScript(i)));
+            }
+            assertTrue(Arrays.equals(rawTx, view.toTransaction().getBytes()));
+        }
+    }
+
+    public void testOutputsOnly() throws Exception {
+        for (byte[] rawTx : loadValidTransactions()) {
+            Transaction tx = Transaction.decodeTransaction(rawTx);
+            TransactionView view = TransactionView.parseOutputs(rawTx);
+            assertEquals(rawTx.length, view.end);
+            assertEquals(tx.scriptWitnesses.length > 0, view.hasWitness());
+            assertEquals(tx.inputs.length, view.getInputsCount());
+            assertEquals(tx.outputs.length, view.getOutputsCount());
+            for (int i = 0; i < tx.outputs.length; i++) {
+                assertEquals(tx.outputs[i].value, view.getOutputValue(i));
+                assertTrue(view.outputScriptEquals(i, tx.outputs[i].scriptPubKey.bytes));
+                assertFalse(view.outputScriptEquals(i, Arrays.copyOf(tx.outputs[i].scriptPubKey.bytes, tx.outputs[i].scriptPubKey.bytes.length + 1)));
+            }
+            assertTrue(Arrays.equals(tx.hash(), view.hash()));
+            assertEquals(tx.lockTime, view.lockTime);
+            try {
+                view.getInputScript(0);
+                fail("inputs were not skipped");
+            } catch (IllegalStateException expected) {
+            }
+        }
+        //BIP143 P2WPKH example, the txid must not cover the witness
+        byte[] segwitTx = BTCUtils.fromHex("01000000000102fff7f7881a8099afa6940d42d1e7f6362bec38171ea3edf433541db4e4ad969f00000000494830450221008b9d1dc26ba6a9cb62127b02742fa9d754cd3bebf337f7a55d114c8e5cdd30be022040529b194ba3f9281a99f2b1c0a19c0489bc22ede944ccf4ecbab4cc618ef3ed01eeffffffef51e1b804cc89d182d279655c3aa89e815b1b309fe287d9b2b55d57b90ec68a0100000000ffffffff02202cb206000000001976a9148280b37df378db99f66f85c95a783a76ac7a6d5988ac9093510d000000001976a9143bde42dbee7e4dbe6a21b2d50ce2f0167faa815988ac000247304402203609e17b84f6a7d30c80bfa610b5b4542f32a8a0d5447a12fb1366d7f01cc44a0220573a954c4518331561406f90300e8f3358f51928d43c212a8caed02de67eebee0121025476c2e83188368da1ff3e292e7acafcdb3566bb0ad253f62fc70f07aeee635711000000");
+        TransactionView view = TransactionView.parseOutputs(ByteBuffer.wrap(segwitTx));
+        assertEquals("e8151a2af31c368a35053ddd4bdb285a8595c769a3ad83e0fa02314a602d4609", BTCUtils.toHex(view.hash()));
+        ByteBuffer direct = ByteBuffer.allocateDirect(segwitTx.length);
+        direct.put(segwitTx);
+        direct.rewind();
+        assertTrue(Arrays.equals(view.hash(), TransactionView.parseOutputs(direct).hash()));
+    }
+
+    public void testTruncatedData() throws Exception {
+        byte[] rawTx = loadValidTransactions().get(0);
+        for (int length = 0; length < rawTx.length; length++) {
+            try {
+                TransactionView.parse(ByteBuffer.wrap(rawTx, 0, length), false);
+                fail("parsed " + length + " bytes of " + rawTx.length);
+            } catch (BitcoinException e) {
+                assertEquals(BitcoinException.ERR_BAD_FORMAT, e.errorCode);
+            }
+        }
+        //a count which can't fit into the data must not allocate anything big
+        byte[] hugeCount = BTCUtils.fromHex("01000000fe00e1f505");
+        try {
+            new Transaction(hugeCount);
+            fail();
+        } catch (BitcoinException e) {
+            assertEquals(BitcoinException.ERR_BAD_FORMAT, e.errorCode);
+        }
+    }
+
+    public void testBenchmark() throws Exception {
+        byte[] largest = new byte[0];
+        for (byte[] rawTx : loadValidTransactions()) {
+            if (rawTx.length > largest.length && Transaction.decodeTransaction(rawTx).scriptWitnesses.length == 0) {
+                largest = rawTx;
+            }
+        }
+        final int count = 100000;
+        for (int i = 0; i < 20000; i++) {
+            new Transaction(largest);
+            TransactionView.parse(largest, false);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            new Transaction(largest);
+        }
+        long decodeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            TransactionView.parse(largest, false);
+        }
+        long viewTime = System.nanoTime() - start;
+        Log.i("TransactionViewTest", count + " parses of " + largest.length + " bytes transaction with " +
+                new Transaction(largest).inputs.length + " inputs: Transaction " + decodeTime / 1000_000 + "ms, view " + viewTime / 1000_000 + "ms");
+    }
+
+    static List<byte[]> loadValidTransactions() throws Exception {
+        File file = new File(TransactionViewTest.class.getClassLoader().getResource("tx_valid.json").getPath());
+        JSONArray all = new JSONArray(new Scanner(new FileInputStream(file)).useDelimiter("\\A").next());
+        List<byte[]> transactions = new ArrayList<>();
+        for (int i = 0; i < all.length(); i++) {
+            JSONArray line = all.getJSONArray(i);
+            if (line.length() == 3) {
+                transactions.add(BTCUtils.fromHex(line.getString(1)));
+            }
+        }
+        return transactions;
+    }
+}